@@ -19,10 +19,13 @@ import com.google.common.base.Optional;
 import net.mountainblade.modular.impl.Injector;
 import net.mountainblade.modular.impl.ModuleLoader;
 import net.mountainblade.modular.impl.ModuleRegistry;
+import net.mountainblade.modular.impl.ScanResult;
 
 import java.io.File;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * Represents a module manager.
@@ -108,6 +111,19 @@ public interface ModuleManager extends Module {
      */
     <M extends Module> M loadModule(Class<M> moduleClass, Filter... filters);
 
+    /**
+     * Loads an implementation of the given module and the implementations of all modules it depends on.
+     *
+     * Unlike {@link #loadModule(Class, Filter...)} the implementation does not need to be known: It will be looked
+     * up in an index of all implementations inside the class path, which gets built on first use (without loading
+     * any of the classes). Only the found implementation and its dependencies will be loaded.
+     *
+     * @param module    The class of the module, usually an interface
+     * @param <M>       The module type
+     * @return The module instance or null if no implementation could be found
+     */
+    <M extends Module> M loadImplementationOf(Class<M> module);
+
     /**
      * Loads modules from a collection of URIs with support for a resource package filter.
      *
@@ -118,6 +134,48 @@ public interface ModuleManager extends Module {
      */
     Collection<Module> loadModules(Collection<URI> uris, String packageName, Filter... filters);
 
+    /**
+     * Looks for classes inside the given URIs without loading any of them.
+     *
+     * The result can be loaded (multiple times, even by other managers) using {@link #loadModules(ScanResult,
+     * Filter...)}, so the same locations do not need to be scanned over and over again.
+     *
+     * @param uris           A collection of URIs to look at
+     * @param packageName    The root package name to look for
+     * @return The result of the scan
+     */
+    ScanResult scan(Collection<URI> uris, String packageName);
+
+    /**
+     * Loads modules from the classes found by a previous scan.
+     *
+     * @param result     The result of a scan, see {@link #scan(Collection, String)}
+     * @param filters    An array of {@link net.mountainblade.modular.Filter filters} to use
+     * @return A collection of all successfully loaded modules.
+     */
+    Collection<Module> loadModules(ScanResult result, Filter... filters);
+
+    /**
+     * Loads modules from a JAR file that only exists in memory (e.g. one that has been downloaded).
+     *
+     * The classes will be read directly from the given buffer, so it must not be modified afterwards.
+     * JAR files nested inside of the given one will not be loaded.
+     *
+     * @param jar        A buffer containing the whole JAR file
+     * @param filters    An array of {@link net.mountainblade.modular.Filter filters} to use
+     * @return A collection of all successfully loaded modules.
+     */
+    Collection<Module> loadModules(ByteBuffer jar, Filter... filters);
+
+    /**
+     * Loads modules from class files that only exist in memory (e.g. ones that have been generated).
+     *
+     * @param classes    The bytes of each class file by the class' fully qualified name
+     * @param filters    An array of {@link net.mountainblade.modular.Filter filters} to use
+     * @return A collection of all successfully loaded modules.
+     */
+    Collection<Module> loadModules(Map<String, byte[]> classes, Filter... filters);
+
     /**
      * Gets a specific module by its class.
      *
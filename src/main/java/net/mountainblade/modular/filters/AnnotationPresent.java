@@ -43,4 +43,23 @@ public class AnnotationPresent implements Filter {
         return candidate.getImplementation().isAnnotationPresent(annotation);
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final AnnotationPresent that = (AnnotationPresent) o;
+        return annotation.equals(that.annotation);
+    }
+
+    @Override
+    public int hashCode() {
+        return annotation.hashCode();
+    }
+
 }
@@ -41,4 +41,23 @@ public class InstanceOf implements Filter {
         return assignableClass.isAssignableFrom(candidate.getImplementation());
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final InstanceOf that = (InstanceOf) o;
+        return assignableClass.equals(that.assignableClass);
+    }
+
+    @Override
+    public int hashCode() {
+        return assignableClass.hashCode();
+    }
+
 }
@@ -41,4 +41,23 @@ public class Not implements Filter {
         return !other.retain(candidate);
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final Not that = (Not) o;
+        return other.equals(that.other);
+    }
+
+    @Override
+    public int hashCode() {
+        return other.hashCode();
+    }
+
 }
@@ -18,6 +18,8 @@ package net.mountainblade.modular.filters;
 import net.mountainblade.modular.Filter;
 import net.mountainblade.modular.impl.ModuleLoader;
 
+import java.util.Arrays;
+
 /**
  * Represents a filter which returns true if one of the filters returns true as well.
  *
@@ -47,4 +49,23 @@ public class Or implements Filter {
         return false;
     }
 
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        final Or that = (Or) o;
+        return Arrays.equals(filters, that.filters);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(filters);
+    }
+
 }
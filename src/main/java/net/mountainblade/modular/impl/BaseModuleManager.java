@@ -17,21 +17,25 @@ package net.mountainblade.modular.impl;
 
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import gnu.trove.iterator.hash.TObjectHashIterator;
 import gnu.trove.map.hash.THashMap;
 import gnu.trove.set.hash.THashSet;
+import gnu.trove.set.hash.TLinkedHashSet;
 import net.mountainblade.modular.Filter;
 import net.mountainblade.modular.Module;
 import net.mountainblade.modular.ModuleInformation;
 import net.mountainblade.modular.ModuleManager;
 import net.mountainblade.modular.ModuleState;
+import net.mountainblade.modular.annotations.Implementation;
 import net.mountainblade.modular.annotations.Shutdown;
 import org.codehaus.plexus.classworlds.ClassWorld;
 import org.codehaus.plexus.classworlds.realm.ClassRealm;
-import org.codehaus.plexus.classworlds.realm.DuplicateRealmException;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
@@ -39,21 +43,27 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 /**
  * Represents the default implementation for module managers.
  *
+ * <p>All loading methods and module lookups synchronize on the manager, as modules can also be loaded by a
+ * directory watcher in the background. Code that accesses the registry directly while a directory is being watched
+ * should synchronize on the manager as well.</p>
+ *
  * @author spaceemotion
  * @version 1.0
  */
@@ -61,23 +71,44 @@ public class BaseModuleManager implements ModuleManager {
     private static final Logger LOG = Logger.getLogger(DefaultModuleManager.class.getName());
 
     private static final ClassWorld CLASS_WORLD = new ClassWorld();
+    private static final int PREVIOUS_LOADS_SIZE = 16;
     private static final String JAVA_HOME = new File(System.getProperty("java.home")).getParent();
     private static final List<URI> LOCAL_CLASSPATH = new LinkedList<>();
-    private static final Map<URI, Collection<String>> JAR_CACHE = new THashMap<>();
-    private static final Collection<String> BLACKLIST = new THashSet<>();
-    private static final Collection<URI> URI_BLACKLIST = new THashSet<>();
+    private static final PathBlacklist BLACKLIST = new PathBlacklist();
     private static boolean thoroughSearchEnabled;
+    private static boolean parallelScanEnabled;
+    private static boolean parallelClassLoadingEnabled;
+    private static boolean jarDeduplicationEnabled;
+    private static boolean pipelinedLoadingEnabled;
     static boolean includedFullClassPath;
 
     static {
-        Collections.addAll(BLACKLIST, ".git", ".idea");
+        BLACKLIST.add(".git").add(".idea");
 
         final String additionalBlacklist = System.getProperty("modular.blacklist");
         if (additionalBlacklist != null) {
-            Collections.addAll(BLACKLIST, additionalBlacklist.split(File.pathSeparator));
+            for (String pattern : additionalBlacklist.split(File.pathSeparator)) {
+                if (!pattern.trim().isEmpty()) {
+                    BLACKLIST.add(pattern);
+                }
+            }
         }
 
         enableThoroughSearch(System.getProperty("modular.thoroughSearch") != null);
+        enableParallelScan(System.getProperty("modular.parallelScan") != null);
+        enableParallelClassLoading(System.getProperty("modular.parallelClassLoading") != null);
+        enableJarDeduplication(System.getProperty("modular.deduplicateJars") != null);
+        enablePipelinedLoading(System.getProperty("modular.pipelinedLoading") != null);
+
+        final String jarCacheSize = System.getProperty("modular.jarCacheSize");
+        if (jarCacheSize != null) {
+            setJarCacheSize(Long.parseLong(jarCacheSize));
+        }
+
+        final String scanIndex = System.getProperty("modular.scanIndex");
+        if (scanIndex != null) {
+            useScanIndex(new File(scanIndex));
+        }
 
         if (System.getProperty("modular.includeFullClassPath") != null) {
             includeFullClassPath();
@@ -87,10 +118,31 @@ public class BaseModuleManager implements ModuleManager {
     private final Collection<Destroyable> destroyables;
     private final Collection<URI> classpath;
 
+    /** Whether or not our scans only list the classes of JAR files that could be implementations */
+    private final boolean preScreening;
+
+    /** Changes whenever a new root gets added to our class path */
+    private int classpathVersion;
+
+    /** Changes whenever a loading procedure gets cancelled, so we don't remember its (incomplete) result */
+    private final AtomicInteger cancelledLoads = new AtomicInteger();
+
     private final ModuleRegistry registry;
     private final Injector injector;
     private final ModuleLoader loader;
 
+    private DiscoveryMode discoveryMode;
+
+    /** The paths only this manager ignores, in addition to the globally blacklisted ones */
+    private final PathBlacklist pathBlacklist = new PathBlacklist(BLACKLIST);
+
+    /** The index of all implementations inside our class path, built on first use */
+    private ImplementationIndex implementationIndex;
+
+    /** The results of the last few loading requests, so unchanged repeated requests can be answered right away */
+    private final Cache<LoadRequest, LoadResult> previousLoads =
+            CacheBuilder.newBuilder().maximumSize(PREVIOUS_LOADS_SIZE).build();
+
     /**
      * Creates a new module manager instance.
      *
@@ -125,6 +177,7 @@ public class BaseModuleManager implements ModuleManager {
 
         this.destroyables = new LinkedList<>();
         this.classpath = createClassPathSet(LOCAL_CLASSPATH);
+        this.preScreening = thoroughSearchEnabled;
 
         this.registry = registry;
         this.injector = new Injector(registry);
@@ -133,6 +186,9 @@ public class BaseModuleManager implements ModuleManager {
         destroyables.add(registry);
         destroyables.add(injector);
 
+        final String mode = System.getProperty("modular.discoveryMode");
+        this.discoveryMode = mode != null ? DiscoveryMode.valueOf(mode.toUpperCase()) : DiscoveryMode.SCAN;
+
         // Also register ourselves so other modules can use this as implementation via injection
         getRegistry().addGhostModule(ModuleManager.class, this, new MavenModuleInformation());
     }
@@ -155,16 +211,46 @@ public class BaseModuleManager implements ModuleManager {
         return loader;
     }
 
+    /**
+     * Gets the way this manager discovers module implementations.
+     *
+     * @return The current discovery mode
+     */
+    public DiscoveryMode getDiscoveryMode() {
+        return discoveryMode;
+    }
+
+    /**
+     * Sets the way this manager discovers module implementations when loading modules from a location.
+     *
+     * The default can also be set by commandline (using the {@code -Dmodular.discoveryMode=services} property).
+     *
+     * @param discoveryMode    The discovery mode to use
+     */
+    public synchronized void setDiscoveryMode(DiscoveryMode discoveryMode) {
+        this.discoveryMode = Preconditions.checkNotNull(discoveryMode, "Invalid discovery mode given");
+    }
+
+    /**
+     * Gets the paths this manager ignores while looking for modules. The blacklist also contains all globally
+     * blacklisted paths (see {@link #blacklist(String)}), patterns added to it only affect this manager.
+     *
+     * @return The blacklist of this manager
+     */
+    public PathBlacklist getPathBlacklist() {
+        return pathBlacklist;
+    }
+
 
     // -------------------------------- Providing new modules --------------------------------
 
     @Override
-    public <T extends Module> T provideSimple(T module) {
+    public synchronized <T extends Module> T provideSimple(T module) {
         return provide(module, false);
     }
 
     @Override
-    public <T extends Module> T provide(T module) {
+    public synchronized <T extends Module> T provide(T module) {
         return provide(module, true);
     }
 
@@ -201,53 +287,305 @@ public class BaseModuleManager implements ModuleManager {
 
     @Override
     @SuppressWarnings("unchecked")
-    public <M extends Module> M loadModule(Class<M> moduleClass, Filter... filters) {
+    public synchronized <M extends Module> M loadModule(Class<M> moduleClass, Filter... filters) {
         return (M) loader.loadModule(this, loader.getClassEntry(moduleClass));
     }
 
     @Override
+    public synchronized <M extends Module> M loadImplementationOf(Class<M> module) {
+        Preconditions.checkNotNull(module, "Invalid module given, should not be null");
+
+        final M existing = registry.getModule(module);
+        if (existing != null) {
+            return existing;
+        }
+
+        // Collect the implementation along with everything it (transitively) depends on, then load them in order
+        final Collection<ModuleLoader.ClassEntry> entries = new TLinkedHashSet<>();
+        final ModuleLoader.ClassEntry classEntry = resolveImplementation(module, entries);
+        if (classEntry == null) {
+            LOG.warning("Could not find an implementation of module: " + module.getName());
+            return null;
+        }
+
+        loadSorted(entries);
+
+        return module.cast(registry.getModule(classEntry.getImplementation()));
+    }
+
+    private ModuleLoader.ClassEntry resolveImplementation(Class<? extends Module> module,
+                                                          Collection<ModuleLoader.ClassEntry> entries) {
+        final ModuleLoader.ClassEntry classEntry = findImplementation(module);
+        if (classEntry == null || !entries.add(classEntry)) {
+            return classEntry;
+        }
+
+        final Collection<Class<? extends Module>> dependencies = new LinkedList<>(classEntry.getRequirements());
+        for (Injector.Entry dependencyEntry : classEntry.getDependencies()) {
+            dependencies.add(dependencyEntry.getDependency());
+        }
+
+        for (Class<? extends Module> dependency : dependencies) {
+            if (dependency == null || dependency.equals(classEntry.getImplementation()) ||
+                    dependency.equals(classEntry.getModule()) || registry.getModule(dependency) != null) {
+                continue;
+            }
+
+            if (resolveImplementation(dependency, entries) == null) {
+                LOG.warning("Could not find an implementation of dependency: " + dependency.getName());
+            }
+        }
+
+        return classEntry;
+    }
+
+    private ModuleLoader.ClassEntry findImplementation(Class<? extends Module> module) {
+        // We might already know the implementation, as long as we can actually see it
+        final ModuleLoader.ClassEntry known = loader.getKnownClassEntry(module);
+        if (known != null && isVisible(known.getImplementation())) {
+            return known;
+        }
+
+        if (!module.isInterface() && module.isAnnotationPresent(Implementation.class)) {
+            return loader.getClassEntry(module);
+        }
+
+        // The index only knows the direct super types, so we only look at all implementations as a last resort
+        final ImplementationIndex index = getImplementationIndex();
+        final ModuleLoader.ClassEntry classEntry = findImplementation(module, index.get(module.getName()));
+
+        return classEntry != null ? classEntry : findImplementation(module, index.getAll());
+    }
+
     @SuppressWarnings("unchecked")
-    public Collection<Module> loadModules(String resource, Filter... filters) {
-        try {
-            // First check if the give name is an already known class
-            final Class<?> theClass = Class.forName(resource, true, loader.getRealm());
-            if (theClass != null && loader.isValidModuleClass(theClass)) {
-                return Collections.singleton(loadModule((Class<? extends Module>) theClass, filters));
+    private ModuleLoader.ClassEntry findImplementation(Class<? extends Module> module, Collection<String> names) {
+        final Collection<Class<? extends Module>> candidates = new TLinkedHashSet<>();
+
+        for (String name : names) {
+            try {
+                final Class<?> aClass = loader.getRealm().loadClass(name);
+                if (loader.isValidModuleClass(aClass) && module.isAssignableFrom(aClass)) {
+                    candidates.add((Class<? extends Module>) aClass);
+                }
+
+            } catch (ClassNotFoundException | LinkageError e) {
+                LOG.log(Level.FINE, "Could not load implementation candidate: " + name, e);
             }
+        }
+
+        // Prefer the implementation that actually is one of the given module, sub-implementations win as usual
+        ModuleLoader.ClassEntry fallback = null;
+
+        for (ModuleLoader.ClassEntry classEntry : loader.getClassEntries(candidates, candidates)) {
+            if (module.equals(classEntry.getModule())) {
+                return classEntry;
+            }
+
+            if (fallback == null) {
+                fallback = classEntry;
+            }
+        }
+
+        return fallback;
+    }
+
+    private Class<?> findClass(String name) {
+        final ClassRealm realm = loader.getRealm();
+        final boolean exists = realm instanceof ModuleRealm ? ((ModuleRealm) realm).hasClass(name) :
+                realm.getResource(name.replace('.', '/') + ".class") != null;
+
+        if (!exists) {
+            return null;
+        }
+
+        try {
+            return Class.forName(name, true, realm);
+
+        } catch (ClassNotFoundException | LinkageError e) {
+            return null;
+        }
+    }
+
+    private boolean isVisible(Class<?> aClass) {
+        try {
+            return loader.getRealm().loadClass(aClass.getName()) == aClass;
+
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private ImplementationIndex getImplementationIndex() {
+        if (implementationIndex == null || !implementationIndex.isUpToDate()) {
+            final ClassPathScanner scanner = newScanner(pathBlacklist.getMatcher());
+            final Map<URI, Collection<String>> classNames = getClasses(scanner, new LinkedList<>(classpath), "");
 
-        } catch (ClassNotFoundException ignore) {
-            // Just ignore this and assume it's a package name
+            implementationIndex = ImplementationIndex.build(loader.getRealm(), classNames, scanner.getSnapshot());
+        }
+
+        return implementationIndex;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public synchronized Collection<Module> loadModules(String resource, Filter... filters) {
+        // First check if the given name is an already known class, without provoking a failed lookup for packages
+        final Class<?> theClass = findClass(resource);
+        if (theClass != null && loader.isValidModuleClass(theClass)) {
+            return Collections.singleton(loadModule((Class<? extends Module>) theClass, filters));
         }
 
         // ... then try the package name and use the local classpath
-        return loadModules(classpath, resource.replace('.', File.separatorChar), filters);
+        return loadModules(new LinkedList<>(classpath), null, resource.replace('.', File.separatorChar), filters);
     }
 
     @Override
-    public Collection<Module> loadModules(File file, Filter... filters) {
+    public synchronized Collection<Module> loadModules(File file, Filter... filters) {
         return loadModules(file.toURI(), filters);
     }
 
     @Override
-    public Collection<Module> loadModules(URI uri, Filter... filters) {
+    public synchronized Collection<Module> loadModules(URI uri, Filter... filters) {
         return loadModules(uri, "", filters);
     }
 
     @Override
-    public Collection<Module> loadModules(URI uri, String packageName, Filter... filters) {
+    public synchronized Collection<Module> loadModules(URI uri, String packageName, Filter... filters) {
         return loadModules(Collections.singletonList(uri), packageName, filters);
     }
 
     @Override
-    public Collection<Module> loadModules(Collection<URI> uris, String root, Filter... filters) {
+    public synchronized Collection<Module> loadModules(Collection<URI> uris, String root, Filter... filters) {
         final LinkedList<URI> copy = new LinkedList<>(uris);
+        return loadModules(copy, copy, root, filters);
+    }
+
+    /**
+     * Loads the modules inside the given URIs.
+     *
+     * @param uris         The URIs to load the modules from
+     * @param requested    The URIs the caller asked for or null if we're loading from our own class path
+     * @param root         The root package to look for
+     * @param filters      An array of filters to use
+     * @return A collection of all successfully loaded modules
+     */
+    private Collection<Module> loadModules(List<URI> uris, List<URI> requested, String root, Filter... filters) {
+        // If nothing changed since we did the exact same thing before, we'd only get the same modules again
+        final PathBlacklist.Matcher blacklist = pathBlacklist.getMatcher();
+        final LoadResult previous = previousLoads.getIfPresent(newLoadRequest(requested, root, blacklist, filters));
+        if (previous != null && previous.snapshot.isUpToDate()) {
+            return new LinkedList<>(previous.modules);
+        }
+
+        final int cancelled = cancelledLoads.get();
+
+        // The pipeline scans on another thread, so it gets its own copy of our class path
+        final ClassPathScanner scanner = pipelinedLoadingEnabled ?
+                newScanner(new THashSet<>(classpath), blacklist) : newScanner(blacklist);
+        final Collection<Module> modules = pipelinedLoadingEnabled ?
+                new LoadingPipeline(this, scanner, uris, root, filters).run() :
+                loadModules(scan(scanner, uris, root), filters);
+
+        // Our class path grows with the roots we just found, but that alone must not make us miss the next time
+        if (cancelledLoads.get() == cancelled) {
+            previousLoads.put(newLoadRequest(requested, root, blacklist, filters),
+                    new LoadResult(new LinkedList<>(modules), scanner.getSnapshot()));
+        }
+
+        return modules;
+    }
+
+    private LoadRequest newLoadRequest(List<URI> requested, String root, PathBlacklist.Matcher blacklist,
+                                       Filter... filters) {
+        // Loading from our class path has to be done again once other requests added new roots to it
+        return new LoadRequest(requested, requested != null ? -1 : classpathVersion, root, discoveryMode, blacklist,
+                filters);
+    }
+
+    /**
+     * Marks the current loading procedure as cancelled, so its result does not get reused.
+     */
+    void cancelLoad() {
+        cancelledLoads.incrementAndGet();
+    }
+
+    @Override
+    public synchronized ScanResult scan(Collection<URI> uris, String root) {
+        return scan(newScanner(pathBlacklist.getMatcher()), new LinkedList<>(uris), root);
+    }
+
+    private ScanResult scan(ClassPathScanner scanner, Collection<URI> uris, String root) {
+        return new ScanResult(findClasses(scanner, uris, root), scanner.getSnapshot());
+    }
+
+    @Override
+    public synchronized Collection<Module> loadModules(ScanResult result, Filter... filters) {
+        Preconditions.checkNotNull(result, "Invalid scan result given, should not be null");
+
+        // The result might come from another manager, so our realm does not necessarily know the locations yet
+        final Map<URI, Collection<String>> classNames = result.getClassNames();
+        for (Map.Entry<URI, Collection<String>> entry : classNames.entrySet()) {
+            addUriToRealm(entry.getKey(), entry.getValue());
+        }
+
+        return loadClasses(classNames, filters);
+    }
+
+    @Override
+    public synchronized Collection<Module> loadModules(ByteBuffer jar, Filter... filters) {
+        Preconditions.checkNotNull(jar, "Invalid buffer given, should not be null");
+
+        try {
+            return loadArchive(new ZipArchive(jar), filters);
+
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Could not load modules from invalid JAR file", e);
+            return new LinkedList<>();
+        }
+    }
+
+    @Override
+    public synchronized Collection<Module> loadModules(Map<String, byte[]> classes, Filter... filters) {
+        Preconditions.checkNotNull(classes, "Invalid classes given, should not be null");
+
+        final Map<String, byte[]> files = new THashMap<>();
+        for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+            files.put(entry.getKey().replace('.', '/') + ".class", entry.getValue());
+        }
+
+        try {
+            return loadArchive(ZipArchive.of(files), filters);
+
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Could not load modules from class files", e);
+            return new LinkedList<>();
+        }
+    }
 
+    private Collection<Module> loadArchive(ZipArchive archive, Filter... filters) throws IOException {
+        // The archive is served from memory by our own URL handler, just like nested JAR files
+        final URI uri = NestedJarHandler.register(archive);
+        final Collection<String> classNames = ClassPathScanner.readArchive(archive, preScreening);
+
+        if (classNames.isEmpty() || !addUriToRealm(uri, classNames)) {
+            NestedJarHandler.unregister(uri);
+            return new LinkedList<>();
+        }
+
+        return loadClasses(Collections.singletonMap(uri, classNames), filters);
+    }
+
+    private Collection<Module> loadClasses(Map<URI, Collection<String>> classNames, Filter... filters) {
         // 1. Find modules using the URI
-        final THashMap<URI, Collection<String>> map = new THashMap<>();
-        final Collection<String> list = new LinkedList<>();
-        final Collection<ModuleLoader.ClassEntry> entries = loader.filter(this, getClasses(copy, root, map, list), list);
+        final Collection<ModuleLoader.ClassEntry> entries = loader.filter(this, classNames);
 
         // 2. Filter the results
+        applyFilters(entries, filters);
+
+        return loadSorted(entries);
+    }
+
+    void applyFilters(Collection<ModuleLoader.ClassEntry> entries, Filter... filters) {
         Iterator<ModuleLoader.ClassEntry> iterator;
 
         for (Filter filter : filters) {
@@ -261,7 +599,9 @@ public class BaseModuleManager implements ModuleManager {
                 }
             }
         }
+    }
 
+    Collection<Module> loadSorted(Collection<ModuleLoader.ClassEntry> entries) {
         // 3. Create a topological list of dependencies
         Map<ModuleLoader.ClassEntry, TopologicalSortedList.Node<ModuleLoader.ClassEntry>> nodes = new THashMap<>();
         final TopologicalSortedList<ModuleLoader.ClassEntry> sortedCandidates = new TopologicalSortedList<>();
@@ -291,6 +631,7 @@ public class BaseModuleManager implements ModuleManager {
 
         } catch (TopologicalSortedList.CycleException e) {
             LOG.log(Level.WARNING, "Error sorting module load order, found dependency cycle", e);
+            cancelLoad();
             return modules;
         }
 
@@ -300,6 +641,7 @@ public class BaseModuleManager implements ModuleManager {
 
             if (module == null) {
                 LOG.warning("Could not load modules properly, cancelling loading procedure");
+                cancelLoad();
                 break;
             }
 
@@ -309,6 +651,37 @@ public class BaseModuleManager implements ModuleManager {
         return modules;
     }
 
+    /**
+     * Loads the modules inside the given directory and keeps watching it for new JAR files.
+     *
+     * <p>Whenever a JAR file gets added, only that file gets scanned and its modules get loaded into this manager,
+     * on a separate daemon thread (while holding the lock of this manager). Sub-directories are not being watched.
+     * JAR files that get replaced are ignored: Our class realm keeps reading the file it opened first, so neither
+     * new nor changed classes could be loaded from it. Those need a new manager or a new file name.</p>
+     *
+     * @param directory    The directory to watch
+     * @param filters      An array of filters to apply to the loaded modules
+     * @return A handle to stop watching the directory, the watcher also stops when the manager shuts down
+     * @throws IOException if the directory could not be watched
+     */
+    public synchronized Closeable watchModules(File directory, Filter... filters) throws IOException {
+        final DirectoryWatcher watcher = new DirectoryWatcher(this, directory, filters);
+
+        // The directory is already being watched, so we won't miss any files that get added in the meantime
+        try {
+            loadModules(directory, filters);
+
+        } catch (RuntimeException | Error e) {
+            watcher.close();
+            throw e;
+        }
+
+        destroyables.add(watcher);
+        watcher.start();
+
+        return watcher;
+    }
+
     private void addDependency(ModuleLoader.ClassEntry classEntry,
                                TopologicalSortedList.Node<ModuleLoader.ClassEntry> node,
                                Class<? extends Module> dependency,
@@ -334,197 +707,116 @@ public class BaseModuleManager implements ModuleManager {
         depNode.isRequiredBefore(node);
     }
 
-    private boolean addUriToRealm(URI uri) {
-        try {
-            getLoader().getRealm().addURL(uri.toURL());
-            classpath.add(uri);
-            return true;
+    private boolean addUriToRealm(URI uri, Collection<String> classNames) {
+        if (!addToRealm(uri, classNames)) {
+            return false;
+        }
 
-        } catch (MalformedURLException e) {
-            LOG.log(Level.SEVERE, "Could not load modules from malformed URL: " + uri, e);
+        if (classpath.add(uri)) {
+            classpathVersion++;
         }
 
-        return false;
+        return true;
     }
 
-    private Map<URI, Collection<String>> getClasses(Collection<URI> uris, String packageName,
-                                                    Map<URI, Collection<String>> classNames, Collection<String> list) {
-        // Example for a JAR URI:
-        //
-        // jar:file:/Users/spaceemotion/Development/bladekit/target/bladekit-commons-1.0-SNAPSHOT.jar!/net/mountainblade
-        //          |--------------------------------- path ----------------------------------------|  |-- pkg root ---|
-        // ^^^^---- is jar                                                      get index of this ---^^
-
-        // Example for a collection of given mixed URIs:
-        //
-        // modules/
-        //  - moduleA.jar!/          <-- root (jar)
-        //     - net                 <-- package start
-        //        - mountainblade
-        //           - Test.class    <-- class
-        //  - moduleB.jar!/ ....
-        //  - demo/
-        //     - moduleC.jar!/ ...
-        // development
-        //  - src                    <-- root (folder)
-        //     - net                 <-- package start
-        //        - mountainblade
-        //           - Test.class    <-- class
-
-        for (URI uri : uris) {
-            if (URI_BLACKLIST.contains(uri)) {
-                continue;
-            }
-
-            final File file;
-
-            // If the uri does not seem to be a jar file, do the directory walk
-            if (!uri.getScheme().equalsIgnoreCase("jar") && !uri.getSchemeSpecificPart().endsWith(".jar")) {
-                final File parent = new File(uri);
-                walkDirectory(parent, parent, packageName, classNames, list);
-                continue;
+    private boolean addToRealm(URI uri, Collection<String> classNames) {
+        try {
+            // The JDK can't read nested (or in-memory) JAR files, so we need to use our own handler for those
+            final ClassRealm realm = getLoader().getRealm();
+            final URL url = NestedJarHandler.isServed(uri) ? NestedJarHandler.toUrl(uri, realm) : uri.toURL();
+            realm.addURL(url);
+
+            // Remember where the packages are, so the indexed strategy can go straight to the right realm
+            if (realm instanceof ModuleRealm) {
+                ((ModuleRealm) realm).index(classNames);
             }
 
-            // Add the JAR to the realm
-            addUriToRealm(uri);
-
-            // Check if we already have a cached version of the JAR file
-            final Collection<String> cache = JAR_CACHE.get(uri);
+            return true;
 
-            if (cache != null) {
-                if (packageName.isEmpty()) {
-                    classNames.put(uri, cache);
+        } catch (MalformedURLException e) {
+            LOG.log(Level.SEVERE, "Could not load modules from malformed URL: " + uri, e);
+        }
 
-                } else {
-                    final LinkedList<String> names = new LinkedList<>();
-                    for (String name : cache) {
-                        if (name.startsWith(packageName)) {
-                            names.add(name);
-                            list.add(name);
-                        }
-                    }
+        return false;
+    }
 
-                    classNames.put(uri, names);
-                }
+    private ClassPathScanner newScanner(PathBlacklist.Matcher blacklist) {
+        return newScanner(classpath, blacklist);
+    }
 
-                continue;
-            }
+    private ClassPathScanner newScanner(Collection<URI> classpath, PathBlacklist.Matcher blacklist) {
+        // A thorough search covers the whole class path, which is always worth splitting up
+        return new ClassPathScanner(classpath, parallelScanEnabled || thoroughSearchEnabled, preScreening, blacklist);
+    }
 
-            // Get the proper JAR file or folder from the URI
-            final Collection<String> classes = new LinkedList<>();
-            final String scheme = uri.getSchemeSpecificPart();
-            final int divider = scheme.indexOf("!/");
-            file = new File(divider < 0 ? scheme : scheme.substring(0, divider).replace("file:", ""));
-
-            // Get appropriate class names by removing trailing .class and convert the file name to a usable class name
-            try (ZipInputStream zip = new ZipInputStream(new FileInputStream(file))) {
-                String name;
-                String properName;
-                for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
-                    name = entry.getName();
-
-                    if (!entry.isDirectory() && name.endsWith(".class")) {
-                        properName = getProperClassName(name);
-                        if (properName.endsWith("package-info")) {
-                            continue;
-                        }
-
-                        classes.add(properName);
-
-                        if (properName.startsWith(packageName) || name.startsWith(packageName)) {
-                            list.add(properName);
-                        }
-                    }
-                }
-            } catch (IOException e) {
-                throw new RuntimeException("Could not fetch JAR file contents: " + uri + " (using " + file + ')', e);
-            }
+    Map<URI, Collection<String>> getClasses(ClassPathScanner scanner, Collection<URI> uris, String packageName) {
+        final Map<URI, Collection<String>> classNames = findClasses(scanner, uris, packageName);
 
-            // Add processed classes to the cache
-            classNames.put(uri, classes);
-            JAR_CACHE.put(uri, classes);
+        // Add all found class roots to the realm, so we can load the classes later on
+        for (Map.Entry<URI, Collection<String>> entry : classNames.entrySet()) {
+            addUriToRealm(entry.getKey(), entry.getValue());
         }
 
         return classNames;
     }
 
-    private String getProperClassName(String name) {
-        return name.substring(0, name.length() - ".class".length()).replace("\\", "/").replace("/", ".");
-    }
+    /**
+     * Finds the classes inside the given URIs and adds their roots to our realm, but neither to our class path nor
+     * to the scan index. Unlike {@link #getClasses(ClassPathScanner, Collection, String)} this can be called from
+     * other threads, the roots need to be handed to {@link #addToClassPath(Collection)} by the calling thread.
+     *
+     * @param scanner        The scanner to use
+     * @param uris           The URIs to look at
+     * @param packageName    The package prefix
+     * @return A map of all class roots and the class names within them
+     */
+    Map<URI, Collection<String>> collectClasses(ClassPathScanner scanner, Collection<URI> uris, String packageName) {
+        final Map<URI, Collection<String>> classNames = discoveryMode == DiscoveryMode.SERVICES ?
+                scanner.discover(uris, packageName) : scanner.collect(uris, packageName);
 
-    private void walkDirectory(File root, File parent, String packageName, Map<URI, Collection<String>> names,
-                               Collection<String> list) {
-        final File[] listFiles = parent.isDirectory() ? parent.listFiles() : null;
-        if (listFiles == null) {
-            return;
+        for (Map.Entry<URI, Collection<String>> entry : classNames.entrySet()) {
+            addToRealm(entry.getKey(), entry.getValue());
         }
 
-        // Continue to look up valid files within the directory
-        for (File file : listFiles) {
-            final String name = file.getName();
-            if (isBlacklisted(name)) {
-                continue;
-            }
-
-            // Check if the current file is a directory, and if it is, check if its a classpath (and thus a root)
-            if (file.isDirectory()) {
-                walkDirectory(classpath.contains(parent.toURI()) ?
-                        parent.getAbsoluteFile() : root, file, packageName, names, list);
-                continue;
-            }
-
-            // Check for JAR files and do the whole thing over again
-            final URI uri = file.toURI();
-            if (name.endsWith(".jar")) {
-                getClasses(Collections.singleton(uri), packageName, names, list);
-                continue;
-            }
-
-            if (root == null) {
-                root = parent;
-            }
-
-            // If we have a root path check if we're in the right package
-            final String path = file.getAbsolutePath();
-            final String substring = path.substring(root.getAbsolutePath().length() + 1);
-            if (!substring.startsWith(packageName)) {
-                continue;
-            }
+        return classNames;
+    }
 
-            // Only add class files
-            if (name.endsWith(".class")) {
-                final URI rootUri = root.toURI();
-                Collection<String> classNames = names.get(rootUri);
-                if (classNames == null) {
-                    classNames = new LinkedList<>();
-                    names.put(rootUri, classNames);
-                }
+    void addToClassPath(Collection<URI> roots) {
+        if (classpath.addAll(roots)) {
+            classpathVersion++;
+        }
+    }
 
-                final String className = getProperClassName(substring);
-                if (!className.equalsIgnoreCase("package-info")) {
-                    classNames.add(className);
-                    list.add(className);
+    private Map<URI, Collection<String>> findClasses(ClassPathScanner scanner, Collection<URI> uris,
+                                                     String packageName) {
+        return discoveryMode == DiscoveryMode.SERVICES ?
+                scanner.discover(uris, packageName) : scanner.scan(uris, packageName);
+    }
 
-                    addUriToRealm(rootUri);
-                }
-            }
-        }
+    /**
+     * Checks whether or not the given root has already been added to our realm.
+     *
+     * @param uri    The URI of the root
+     * @return True if the classes of the root are being loaded by our realm
+     */
+    synchronized boolean containsRoot(URI uri) {
+        return classpath.contains(uri);
     }
 
     void blacklist(URI uri) {
-        URI_BLACKLIST.add(uri);
+        ClassPathScanner.blacklist(uri);
     }
 
 
     // -------------------------------- General getters --------------------------------
 
     @Override
-    public <M extends Module> Optional<M> getModule(Class<M> module) {
+    public synchronized <M extends Module> Optional<M> getModule(Class<M> module) {
         return Optional.fromNullable(registry.getModule(module));
     }
 
     @Override
-    public Optional<ModuleInformation> getInformation(Class<? extends Module> module) {
+    public synchronized Optional<ModuleInformation> getInformation(Class<? extends Module> module) {
         return Optional.fromNullable(registry.getInformation(module));
     }
 
@@ -532,7 +824,7 @@ public class BaseModuleManager implements ModuleManager {
     // -------------------------------- Miscellaneous --------------------------------
 
     @Override
-    public void shutdown() {
+    public synchronized void shutdown() {
         // Send shut down signal to all registered modules
         shutdown(getRegistry().getModules().iterator());
     }
@@ -570,43 +862,67 @@ public class BaseModuleManager implements ModuleManager {
         }
 
         // And destroy what we can
+        previousLoads.invalidateAll();
+
         for (Destroyable destroyable : destroyables) {
             destroyable.destroy();
         }
+
+        // Close our realm, so it can be unloaded along with its classes as soon as nothing references them anymore
+        final ClassRealm realm = loader.getRealm();
+        if (realm instanceof ModuleRealm) {
+            try {
+                ((ModuleRealm) realm).dispose();
+
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Could not close class realm: " + realm.getId(), e);
+            }
+        }
     }
 
     /**
-     * Creates a new class realm.
+     * Creates a new class realm, which caches failed class lookups until new URLs get added.
+     * The realm gets closed once the manager using it shuts down.
      *
      * @param parent         The parent realm, if any - can be left at null
-     * @param classLoader    The parent class loader, if any - can be left at null
+     * @param classLoader    The parent class loader, if any - can be left at null (will be ignored if there is a
+     *                       parent realm)
      * @return A new class realm
-     * @throws RuntimeException When a realm of the same name already exists,
-     * as we're using UUIDs this <i>should</i> never happen...
      */
     public static ClassRealm newRealm(ClassRealm parent, ClassLoader classLoader) {
         if (classLoader == null) {
             classLoader = BaseModuleManager.class.getClassLoader();
         }
 
-        try {
-            final String name = UUID.randomUUID().toString();
-            return parent != null ? parent.createChildRealm(name) : CLASS_WORLD.newRealm(name, classLoader);
-
-        } catch (DuplicateRealmException e) {
-            // Hopefully this never happens... would be weird, right? Right?!?
-            throw new RuntimeException("Created duplicate realm even though we're using random UUIDs!", e);
+        // Just like a child realm of plexus, ours only uses the parent realm and no base class loader
+        final String name = UUID.randomUUID().toString();
+        final ClassRealm realm = new ModuleRealm(CLASS_WORLD, name, parent != null ? null : classLoader);
+        if (parent != null) {
+            realm.setParentRealm(parent);
         }
+
+        return realm;
     }
 
     /**
      * Blacklists the given directory / file name so folders
-     * with the same name will be ignored during the discovery process.
+     * with the same name will be ignored during the discovery process of all managers.
+     *
+     * <p>The name can also be a glob pattern, see {@link PathBlacklist} for the syntax.</p>
      *
      * @param name    The name of the directory or file
      */
     public static void blacklist(String name) {
-        BLACKLIST.add(name.toLowerCase());
+        BLACKLIST.add(name);
+    }
+
+    /**
+     * Gets the global blacklist, which is the parent of the blacklists of all managers.
+     *
+     * @return The global blacklist
+     */
+    static PathBlacklist getGlobalBlacklist() {
+        return BLACKLIST;
     }
 
     /**
@@ -643,7 +959,12 @@ public class BaseModuleManager implements ModuleManager {
      * from inside an IDE, some modules might not work as expected because their requirements
      * weren't loaded beforehand.
      *
-     * However, this will increase the loading time drastically.
+     * To keep the loading time close to the one of a package-restricted load, the class path will be scanned in
+     * parallel and only the classes of a JAR file that could be implementations get listed while scanning it. As
+     * these listings are shared by all managers (and persisted in the scan index, if enabled), libraries without any
+     * modules will only be read once. Just like the class path, the mode gets picked up when a manager is created,
+     * so toggling it does not change the way existing managers scan.
+     *
      * This mode can also be enabled by commandline (using the {@code -Dmodular.thoroughSearch} property).
      *
      * @param toggle    True if the mode should be enabled, false if disabled
@@ -657,20 +978,48 @@ public class BaseModuleManager implements ModuleManager {
 
         addToLocalClassPath(classLoader.getResource("."), findClassLoaderRootURL(baseClass));
 
-        if (toggle && classLoader instanceof URLClassLoader) {
-            // Add full runtime classpath
-            String path;
-            for (URL url: ((URLClassLoader) classLoader).getURLs()) {
-                path = url.getPath();
-                if (path.startsWith(JAVA_HOME)) {
+        if (!toggle) {
+            return;
+        }
+
+        // Add full runtime classpath, newer runtimes don't use an URL class loader for the application anymore
+        final URL[] urls;
+        if (classLoader instanceof URLClassLoader) {
+            urls = ((URLClassLoader) classLoader).getURLs();
+
+        } else {
+            final String[] paths = System.getProperty("java.class.path", "").split(File.pathSeparator);
+            urls = new URL[paths.length];
+
+            for (int i = 0; i < paths.length; i++) {
+                if (paths[i].isEmpty()) {
                     continue;
                 }
 
-                if (!isBlacklisted(path)) {
-                    addToLocalClassPath(url);
+                try {
+                    urls[i] = new File(paths[i]).toURI().toURL();
+
+                } catch (MalformedURLException e) {
+                    LOG.log(Level.WARNING, "Could not add class path entry: " + paths[i], e);
                 }
             }
         }
+
+        String path;
+        for (URL url: urls) {
+            if (url == null) {
+                continue;
+            }
+
+            path = url.getPath();
+            if (path.startsWith(JAVA_HOME)) {
+                continue;
+            }
+
+            if (!isBlacklisted(path)) {
+                addToLocalClassPath(url);
+            }
+        }
     }
 
     /**
@@ -683,6 +1032,150 @@ public class BaseModuleManager implements ModuleManager {
         return thoroughSearchEnabled;
     }
 
+    /**
+     * Toggles the state of the "parallel scan" mode.
+     *
+     * When enabled, the class path scan will be split up into one task per URI, JAR file and sub-directory, which
+     * get processed by a shared fork-join pool. This mainly pays off when loading modules from a lot of locations
+     * (e.g. a plugin directory with hundreds of JAR files), as the results are the same as with a sequential scan.
+     *
+     * This mode can also be enabled by commandline (using the {@code -Dmodular.parallelScan} property).
+     *
+     * @param toggle    True if the mode should be enabled, false if disabled
+     */
+    public static void enableParallelScan(boolean toggle) {
+        parallelScanEnabled = toggle;
+    }
+
+    /**
+     * Indicates whether or not the "parallel scan mode" is enabled.
+     *
+     * @return True if enabled, false if not
+     * @see #enableParallelScan(boolean)
+     */
+    public static boolean parallelScanEnabled() {
+        return parallelScanEnabled;
+    }
+
+    /**
+     * Toggles the state of the "parallel class loading" mode.
+     *
+     * When enabled, the classes found at the given locations will be loaded by multiple threads of the shared
+     * fork-join pool at once. Module realms are parallel capable, so they only lock the name of the class that is
+     * being loaded instead of the whole realm. The found modules are the same as with sequential loading.
+     *
+     * This mode can also be enabled by commandline (using the {@code -Dmodular.parallelClassLoading} property).
+     *
+     * @param toggle    True if the mode should be enabled, false if disabled
+     */
+    public static void enableParallelClassLoading(boolean toggle) {
+        parallelClassLoadingEnabled = toggle;
+    }
+
+    /**
+     * Indicates whether or not the "parallel class loading mode" is enabled.
+     *
+     * @return True if enabled, false if not
+     * @see #enableParallelClassLoading(boolean)
+     */
+    public static boolean parallelClassLoadingEnabled() {
+        return parallelClassLoadingEnabled;
+    }
+
+    /**
+     * Enables or disables the "pipelined loading mode".
+     *
+     * When enabled, loading modules from multiple locations does not wait for all of them to be scanned and all of
+     * their classes to be loaded: One thread scans the locations one after another, a second one loads the classes
+     * of each scanned location, while the calling thread already instantiates and initializes the modules whose
+     * dependencies are available. Modules with missing dependencies get loaded in the usual order at the very end.
+     *
+     * Please note that an implementation that has already been loaded will not be replaced by a sub-implementation
+     * which has been found in a later location.
+     *
+     * This mode can also be enabled by commandline (using the {@code -Dmodular.pipelinedLoading} property).
+     *
+     * @param toggle    True if the mode should be enabled, false if disabled
+     */
+    public static void enablePipelinedLoading(boolean toggle) {
+        pipelinedLoadingEnabled = toggle;
+    }
+
+    /**
+     * Indicates whether or not the "pipelined loading mode" is enabled.
+     *
+     * @return True if enabled, false if not
+     * @see #enablePipelinedLoading(boolean)
+     */
+    public static boolean pipelinedLoadingEnabled() {
+        return pipelinedLoadingEnabled;
+    }
+
+    /**
+     * Enables or disables the "JAR deduplication mode".
+     *
+     * When enabled, JAR files are identified by a hash of their central directory (which contains the name, size and
+     * checksum of every entry). Identical copies of a library that lie on different paths (e.g. in multiple plugin
+     * directories) will only be scanned once and only the first copy gets added to the class realm, so their classes
+     * won't be loaded twice either.
+     *
+     * This mode can also be enabled by commandline (using the {@code -Dmodular.deduplicateJars} property).
+     *
+     * @param toggle    True if the mode should be enabled, false if disabled
+     */
+    public static void enableJarDeduplication(boolean toggle) {
+        jarDeduplicationEnabled = toggle;
+        ClassPathScanner.setDeduplication(toggle);
+    }
+
+    /**
+     * Indicates whether or not the "JAR deduplication mode" is enabled.
+     *
+     * @return True if enabled, false if not
+     * @see #enableJarDeduplication(boolean)
+     */
+    public static boolean jarDeduplicationEnabled() {
+        return jarDeduplicationEnabled;
+    }
+
+    /**
+     * Sets the file of the persistent scan index, which will be used to store the contents of all scanned JAR files.
+     *
+     * On the next start, JAR files that did not change (same size and modification time) will be served from the
+     * index without opening them again. The index gets memory-mapped, so only the entries that are actually needed
+     * will be read. This can also be set by commandline (using the {@code -Dmodular.scanIndex=path} property).
+     *
+     * @param file    The index file, or null to disable the index
+     */
+    public static void useScanIndex(File file) {
+        ClassPathScanner.setIndex(file != null ? new ScanIndex(file) : null);
+    }
+
+    /**
+     * Sets the maximum number of JAR files whose contents will be kept in memory, the same goes for the number of
+     * locations that have been marked as not containing any modules. This drops all currently cached entries.
+     *
+     * Cached entries are validated by the size and modification time of their file, so changed JAR files will be
+     * scanned again. The size can also be set by commandline (using the {@code -Dmodular.jarCacheSize=size} property),
+     * by default up to {@value ClassPathScanner#DEFAULT_CACHE_SIZE} entries will be kept.
+     *
+     * @param size    The maximum number of entries
+     */
+    public static void setJarCacheSize(long size) {
+        Preconditions.checkArgument(size >= 0, "Invalid cache size given, should not be negative");
+        ClassPathScanner.setCacheSize(size);
+    }
+
+    /**
+     * Gets the hit and miss statistics of the JAR cache.
+     *
+     * @return The cache statistics
+     * @see #setJarCacheSize(long)
+     */
+    public static CacheStats getJarCacheStats() {
+        return ClassPathScanner.getCacheStats();
+    }
+
     /**
      * Adds the given url(s) as URIs to the local class path.
      * This needs to be done before a manager gets created as each manager holds a modified copy of the static list.
@@ -748,16 +1241,69 @@ public class BaseModuleManager implements ModuleManager {
         return classPath;
     }
 
-    private static boolean isBlacklisted(String name) {
-        name = name.toLowerCase();
+    static boolean isBlacklisted(String path) {
+        return BLACKLIST.isBlacklisted(path);
+    }
+
 
-        for (String blacklisted : BLACKLIST) {
-            if (name.contains(blacklisted)) {
+    /**
+     * Represents the parameters of a single loading request.
+     */
+    private static final class LoadRequest {
+        private final List<URI> uris;
+        private final int classpathVersion;
+        private final String root;
+        private final DiscoveryMode discoveryMode;
+        private final PathBlacklist.Matcher blacklist;
+        private final List<Filter> filters;
+
+
+        private LoadRequest(List<URI> uris, int classpathVersion, String root, DiscoveryMode discoveryMode,
+                            PathBlacklist.Matcher blacklist, Filter... filters) {
+            this.uris = uris;
+            this.classpathVersion = classpathVersion;
+            this.root = root;
+            this.discoveryMode = discoveryMode;
+            this.blacklist = blacklist;
+            this.filters = Arrays.asList(filters.clone());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
                 return true;
             }
+
+            if (!(o instanceof LoadRequest)) {
+                return false;
+            }
+
+            final LoadRequest that = (LoadRequest) o;
+            return Objects.equals(uris, that.uris) && classpathVersion == that.classpathVersion &&
+                    Objects.equals(root, that.root) && discoveryMode == that.discoveryMode &&
+                    blacklist == that.blacklist && filters.equals(that.filters);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(uris, classpathVersion, root, discoveryMode, blacklist, filters);
+        }
+
+    }
+
+    /**
+     * Represents the outcome of a loading request (DTO).
+     */
+    private static final class LoadResult {
+        private final Collection<Module> modules;
+        private final ClassPathScanner.Snapshot snapshot;
+
+
+        private LoadResult(Collection<Module> modules, ClassPathScanner.Snapshot snapshot) {
+            this.modules = modules;
+            this.snapshot = snapshot;
         }
 
-        return false;
     }
 
 }
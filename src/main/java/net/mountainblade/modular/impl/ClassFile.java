@@ -0,0 +1,297 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+
+/**
+ * Represents the bare minimum of a parsed class file, read directly from its bytes without defining the class.
+ *
+ * <p>This is used to pre-screen classes before they get loaded: Only classes that are no interfaces and carry the
+ * {@link net.mountainblade.modular.annotations.Implementation} annotation can be modules. As the annotation type has
+ * to be referenced in the constant pool, classes without it can be rejected right after reading the pool.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class ClassFile {
+    /** The type descriptor of the implementation annotation */
+    static final String IMPLEMENTATION = "Lnet/mountainblade/modular/annotations/Implementation;";
+
+    private static final int MAGIC = 0xCAFEBABE;
+    private static final int ACC_INTERFACE = 0x0200;
+
+    private final int access;
+    private final String name;
+    private final String superName;
+    private final Collection<String> interfaces;
+    private final Collection<String> annotations;
+    private final String implementedModule;
+
+
+    private ClassFile(int access, String name, String superName, Collection<String> interfaces,
+                      Collection<String> annotations, String implementedModule) {
+        this.access = access;
+        this.name = name;
+        this.superName = superName;
+        this.interfaces = interfaces;
+        this.annotations = annotations;
+        this.implementedModule = implementedModule;
+    }
+
+    /**
+     * Gets the binary name of the class.
+     *
+     * @return The class name
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the binary name of the superclass.
+     *
+     * @return The name of the superclass or null for {@link Object}
+     */
+    String getSuperName() {
+        return superName;
+    }
+
+    /**
+     * Gets the binary names of all directly implemented interfaces.
+     *
+     * @return A collection of interface names
+     */
+    Collection<String> getInterfaces() {
+        return interfaces;
+    }
+
+    /**
+     * Gets the type descriptors of all runtime-visible class annotations.
+     * This will be empty if the class does not reference the implementation annotation at all.
+     *
+     * @return A collection of annotation descriptors
+     */
+    Collection<String> getAnnotations() {
+        return annotations;
+    }
+
+    /**
+     * Gets the binary name of the module explicitly set in the implementation annotation.
+     *
+     * @return The module class name or null if the default is used
+     */
+    String getImplementedModule() {
+        return implementedModule;
+    }
+
+    /**
+     * Checks whether or not this class could be a module implementation.
+     *
+     * @return True if the class is no interface and is annotated as an implementation
+     */
+    boolean isImplementation() {
+        return (access & ACC_INTERFACE) == 0 && annotations.contains(IMPLEMENTATION);
+    }
+
+    /**
+     * Reads the class file from the given input.
+     *
+     * @param input    The class file input, will not be closed
+     * @return The parsed class file
+     * @throws IOException if the input could not be read or is not a class file
+     */
+    static ClassFile read(InputStream input) throws IOException {
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(input));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a class file");
+        }
+
+        data.skipBytes(4); // Minor and major version
+
+        // Read the constant pool, we only keep UTF-8 entries and class references
+        final int poolSize = data.readUnsignedShort();
+        final String[] strings = new String[poolSize];
+        final int[] classes = new int[poolSize];
+        boolean referencesImplementation = false;
+
+        for (int i = 1; i < poolSize; i++) {
+            final int tag = data.readUnsignedByte();
+
+            switch (tag) {
+                case 1: // UTF-8
+                    strings[i] = data.readUTF();
+                    referencesImplementation |= IMPLEMENTATION.equals(strings[i]);
+                    break;
+
+                case 7: // Class
+                    classes[i] = data.readUnsignedShort();
+                    break;
+
+                case 8: // String
+                case 16: // Method type
+                case 19: // Module
+                case 20: // Package
+                    data.skipBytes(2);
+                    break;
+
+                case 15: // Method handle
+                    data.skipBytes(3);
+                    break;
+
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Field reference
+                case 10: // Method reference
+                case 11: // Interface method reference
+                case 12: // Name and type
+                case 17: // Dynamic
+                case 18: // Invoke dynamic
+                    data.skipBytes(4);
+                    break;
+
+                case 5: // Long
+                case 6: // Double
+                    data.skipBytes(8);
+                    i++; // These take up two slots
+                    break;
+
+                default:
+                    throw new IOException("Unknown constant pool tag: " + tag);
+            }
+        }
+
+        final int access = data.readUnsignedShort();
+        final String name = getClassName(strings, classes, data.readUnsignedShort());
+        final String superName = getClassName(strings, classes, data.readUnsignedShort());
+
+        final int interfaceCount = data.readUnsignedShort();
+        final Collection<String> interfaces = new LinkedList<>();
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(getClassName(strings, classes, data.readUnsignedShort()));
+        }
+
+        // If the annotation is nowhere in the pool we don't need to look at the rest of the class
+        if (!referencesImplementation) {
+            return new ClassFile(access, name, superName, interfaces, Collections.<String>emptyList(), null);
+        }
+
+        skipMembers(data); // Fields
+        skipMembers(data); // Methods
+
+        final Collection<String> annotations = new LinkedList<>();
+        String implementedModule = null;
+
+        final int attributeCount = data.readUnsignedShort();
+        for (int i = 0; i < attributeCount; i++) {
+            final String attribute = strings[data.readUnsignedShort()];
+            final int length = data.readInt();
+
+            if (!"RuntimeVisibleAnnotations".equals(attribute)) {
+                data.skipBytes(length);
+                continue;
+            }
+
+            final int annotationCount = data.readUnsignedShort();
+            for (int j = 0; j < annotationCount; j++) {
+                final String type = strings[data.readUnsignedShort()];
+                annotations.add(type);
+
+                final int pairs = data.readUnsignedShort();
+                for (int k = 0; k < pairs; k++) {
+                    final String element = strings[data.readUnsignedShort()];
+                    final int tag = data.readUnsignedByte();
+
+                    // The module of an implementation is stored as a class descriptor
+                    if (tag == 'c' && IMPLEMENTATION.equals(type) && "module".equals(element)) {
+                        implementedModule = getDescriptorName(strings[data.readUnsignedShort()]);
+                        continue;
+                    }
+
+                    skipElementValue(data, tag);
+                }
+            }
+        }
+
+        return new ClassFile(access, name, superName, interfaces, annotations, implementedModule);
+    }
+
+    private static void skipMembers(DataInputStream data) throws IOException {
+        final int count = data.readUnsignedShort();
+
+        for (int i = 0; i < count; i++) {
+            data.skipBytes(6); // Access flags, name and descriptor
+            skipAttributes(data);
+        }
+    }
+
+    private static void skipAttributes(DataInputStream data) throws IOException {
+        final int count = data.readUnsignedShort();
+
+        for (int i = 0; i < count; i++) {
+            data.skipBytes(2);
+            data.skipBytes(data.readInt());
+        }
+    }
+
+    private static void skipAnnotation(DataInputStream data) throws IOException {
+        data.skipBytes(2); // Type
+        final int pairs = data.readUnsignedShort();
+
+        for (int i = 0; i < pairs; i++) {
+            data.skipBytes(2); // Element name
+            skipElementValue(data, data.readUnsignedByte());
+        }
+    }
+
+    private static void skipElementValue(DataInputStream data, int tag) throws IOException {
+        switch (tag) {
+            case 'e': // Enum constant
+                data.skipBytes(4);
+                break;
+
+            case '@': // Nested annotation
+                skipAnnotation(data);
+                break;
+
+            case '[': // Array
+                final int count = data.readUnsignedShort();
+                for (int i = 0; i < count; i++) {
+                    skipElementValue(data, data.readUnsignedByte());
+                }
+                break;
+
+            default: // Constants and classes
+                data.skipBytes(2);
+        }
+    }
+
+    private static String getClassName(String[] strings, int[] classes, int index) {
+        return index == 0 ? null : strings[classes[index]].replace('/', '.');
+    }
+
+    private static String getDescriptorName(String descriptor) {
+        return descriptor.startsWith("L") && descriptor.endsWith(";") ?
+                descriptor.substring(1, descriptor.length() - 1).replace('/', '.') : descriptor;
+    }
+
+}
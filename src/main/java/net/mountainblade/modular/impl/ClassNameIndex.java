@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+
+/**
+ * Represents an immutable, sorted list of class names that supports fast package prefix lookups.
+ *
+ * <p>As all names sharing a prefix are stored next to each other, a lookup only needs two binary searches
+ * and returns a view on the matching range instead of copying the names.</p>
+ *
+ * <p>The names are front-coded to keep the memory footprint low: They are split up into blocks of
+ * {@value #BLOCK_SIZE} names, each starting with a complete name. All following names in the block only store the
+ * length of the prefix they share with their predecessor, plus the remaining UTF-8 bytes. All blocks live in a
+ * single byte array, so there are no string or node objects per name. Strings get created when accessing names.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class ClassNameIndex extends AbstractList<String> implements RandomAccess {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BLOCK_SIZE = 16;
+
+    private final byte[] data;
+    private final int[] blocks;
+    private final int maxLength;
+    private final int from;
+    private final int to;
+
+
+    /**
+     * Creates a new index containing the given class names.
+     *
+     * @param classNames    The class names to index
+     */
+    ClassNameIndex(Collection<String> classNames) {
+        final String[] names = classNames.toArray(new String[classNames.size()]);
+        Arrays.sort(names);
+
+        final Encoder encoder = new Encoder(names.length);
+        for (String name : names) {
+            encoder.add(name.getBytes(UTF_8));
+        }
+
+        this.data = Arrays.copyOf(encoder.data, encoder.size);
+        this.blocks = encoder.blocks;
+        this.maxLength = encoder.maxLength;
+        this.from = 0;
+        this.to = names.length;
+    }
+
+    private ClassNameIndex(ClassNameIndex index, int from, int to) {
+        this.data = index.data;
+        this.blocks = index.blocks;
+        this.maxLength = index.maxLength;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Gets all class names that start with the given prefix.
+     *
+     * @param prefix    The prefix to look for, usually a package name
+     * @return A view of all matching names
+     */
+    ClassNameIndex withPrefix(String prefix) {
+        if (prefix.isEmpty()) {
+            return this;
+        }
+
+        // Find the first name that is equal to or comes after the prefix
+        int low = from;
+        int high = to;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+
+            if (new Cursor(middle).toString().compareTo(prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        // All names starting with the prefix follow directly after it, so look for the end of that range
+        final int start = low;
+        high = to;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+
+            if (new Cursor(middle).toString().startsWith(prefix)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return new ClassNameIndex(this, start, low);
+    }
+
+    @Override
+    public String get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+
+        return new Cursor(from + index).toString();
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        // Decode the names one after another, instead of starting at the beginning of the block for every name
+        return new Iterator<String>() {
+            private Cursor cursor;
+
+            @Override
+            public boolean hasNext() {
+                return cursor == null ? from < to : cursor.index + 1 < to;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                if (cursor == null) {
+                    cursor = new Cursor(from);
+                } else {
+                    cursor.next();
+                }
+
+                return cursor.toString();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("The index is immutable");
+            }
+        };
+    }
+
+    private static int readVarInt(byte[] data, int[] position) {
+        int value = 0;
+        int shift = 0;
+        byte current;
+
+        do {
+            current = data[position[0]++];
+            value |= (current & 0x7F) << shift;
+            shift += 7;
+        } while ((current & 0x80) != 0);
+
+        return value;
+    }
+
+
+    /**
+     * Represents the current position while decoding the names.
+     */
+    private final class Cursor {
+        private final byte[] name = new byte[maxLength];
+        private final int[] position = new int[1];
+        private int length;
+        private int index;
+
+
+        private Cursor(int index) {
+            // Start with the complete name at the beginning of the block
+            this.index = index - index % BLOCK_SIZE;
+            this.position[0] = blocks[index / BLOCK_SIZE];
+            read(0);
+
+            while (this.index < index) {
+                next();
+            }
+        }
+
+        private void next() {
+            index++;
+
+            // Every block starts with a complete name again
+            if (index % BLOCK_SIZE == 0) {
+                read(0);
+            } else {
+                read(readVarInt(data, position));
+            }
+        }
+
+        private void read(int shared) {
+            final int suffix = readVarInt(data, position);
+            System.arraycopy(data, position[0], name, shared, suffix);
+
+            position[0] += suffix;
+            length = shared + suffix;
+        }
+
+        @Override
+        public String toString() {
+            return new String(name, 0, length, UTF_8);
+        }
+
+    }
+
+    /**
+     * Represents the builder of the front-coded blocks.
+     */
+    private static final class Encoder {
+        private final int[] blocks;
+        private byte[] data = new byte[64];
+        private byte[] previous = new byte[0];
+        private int size;
+        private int count;
+        private int maxLength;
+
+
+        private Encoder(int names) {
+            this.blocks = new int[(names + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        }
+
+        private void add(byte[] name) {
+            if (count % BLOCK_SIZE == 0) {
+                blocks[count / BLOCK_SIZE] = size;
+                write(name, 0);
+
+            } else {
+                int shared = 0;
+                final int max = Math.min(previous.length, name.length);
+                while (shared < max && previous[shared] == name[shared]) {
+                    shared++;
+                }
+
+                writeVarInt(shared);
+                write(name, shared);
+            }
+
+            previous = name;
+            maxLength = Math.max(maxLength, name.length);
+            count++;
+        }
+
+        private void write(byte[] name, int offset) {
+            writeVarInt(name.length - offset);
+            ensureCapacity(name.length - offset);
+
+            System.arraycopy(name, offset, data, size, name.length - offset);
+            size += name.length - offset;
+        }
+
+        private void writeVarInt(int value) {
+            ensureCapacity(5);
+
+            while ((value & ~0x7F) != 0) {
+                data[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+
+            data[size++] = (byte) value;
+        }
+
+        private void ensureCapacity(int length) {
+            if (size + length > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + length));
+            }
+        }
+
+    }
+
+}
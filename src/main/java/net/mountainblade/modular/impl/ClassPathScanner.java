@@ -0,0 +1,1105 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.set.hash.TLinkedHashSet;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Represents the class path scanner that discovers class names inside JAR files and directories.
+ *
+ * <p>The scanner can either work on the calling thread or fork the work for each URI, JAR file and sub-directory
+ * onto a shared fork-join pool. Both modes produce the same class names per location.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class ClassPathScanner {
+    private static final Logger LOG = Logger.getLogger(ClassPathScanner.class.getName());
+
+    /** The default maximum number of JAR files and blacklisted locations we keep in memory */
+    static final long DEFAULT_CACHE_SIZE = 1024;
+
+    /** A cache of the contents of all JAR files we already scanned */
+    private static volatile Cache<URI, JarContents> jarCache = newCache(DEFAULT_CACHE_SIZE);
+
+    /** The manifest attribute that can be set to "false" to exclude a JAR file from the scan */
+    static final String SCAN_ATTRIBUTE = "Modular-Scan";
+
+    /** The manifest attribute listing the packages (and their sub-packages) modules can be found in */
+    static final String PACKAGES_ATTRIBUTE = "Modular-Packages";
+
+    /** The location of the service file declaring module implementations */
+    static final String SERVICES_LOCATION = "META-INF/services/net.mountainblade.modular.Module";
+
+    /** The prefix of the nested JAR entries that get stored along with the class names of a JAR file */
+    private static final String NESTED_PREFIX = "!/";
+
+    /** The listings of the JAR files we already scanned by their fingerprint, if deduplication is enabled */
+    private static volatile Cache<HashCode, Listing> listings = newCache(DEFAULT_CACHE_SIZE);
+
+    /** Whether or not JAR files with the same contents should only be scanned and loaded once */
+    private static volatile boolean deduplicate;
+
+    /** The locations that did not contain any modules the last time we checked them */
+    private static volatile Cache<URI, Stamp> blacklist = newCache(DEFAULT_CACHE_SIZE);
+
+    /** The pool used for parallel scans and class loading, lazily created on first use */
+    private static ForkJoinPool pool;
+
+    /** The persistent scan index, if enabled */
+    private static volatile ScanIndex index;
+
+    private final Collection<URI> classpath;
+    private final boolean parallel;
+    private final boolean preScreen;
+    private final PathBlacklist.Matcher pathBlacklist;
+
+    /** The files and directories we looked at during this scan, along with their state at that time */
+    private final Map<File, Stamp> touched = new ConcurrentHashMap<>();
+
+    /** The fingerprints of the JAR files we came across during this scan */
+    private final Collection<HashCode> fingerprints =
+            Collections.newSetFromMap(new ConcurrentHashMap<HashCode, Boolean>());
+
+
+    /**
+     * Creates a new scanner.
+     *
+     * @param classpath    The class path of the manager, used to detect nested roots within directories
+     * @param parallel     True if the scan should be split up and run in parallel
+     */
+    ClassPathScanner(Collection<URI> classpath, boolean parallel) {
+        this(classpath, parallel, false, BaseModuleManager.getGlobalBlacklist().getMatcher());
+    }
+
+    /**
+     * Creates a new scanner that ignores the given paths.
+     *
+     * @param classpath        The class path of the manager, used to detect nested roots within directories
+     * @param parallel         True if the scan should be split up and run in parallel
+     * @param preScreen        True if only the classes of JAR files that could be implementations should be listed
+     * @param pathBlacklist    The compiled blacklist of files and directories to skip
+     * @see #readArchive(ZipArchive, boolean)
+     */
+    ClassPathScanner(Collection<URI> classpath, boolean parallel, boolean preScreen,
+                     PathBlacklist.Matcher pathBlacklist) {
+        this.classpath = classpath;
+        this.parallel = parallel;
+        this.preScreen = preScreen;
+        this.pathBlacklist = pathBlacklist;
+    }
+
+    /**
+     * Scans the given URIs for classes inside the given package.
+     *
+     * @param uris           The URIs to scan, can be JAR files or directories
+     * @param packageName    The package prefix, for JAR files either separated by dots or by slashes
+     * @return A map of all class roots (JAR files or directories) and the class names found within them
+     */
+    Map<URI, Collection<String>> scan(Collection<URI> uris, String packageName) {
+        final Map<URI, Collection<String>> classNames = collect(uris, packageName);
+
+        // Persist newly scanned JAR files, so we don't need to open them again on the next start
+        flushIndex();
+
+        return classNames;
+    }
+
+    /**
+     * Scans the given URIs just like {@link #scan(Collection, String)}, but does not persist the scan index.
+     * This is meant for scanning a lot of locations one after another, {@link #flushIndex()} has to be called
+     * once all of them have been scanned.
+     *
+     * @param uris           The URIs to scan, can be JAR files or directories
+     * @param packageName    The package prefix, for JAR files either separated by dots or by slashes
+     * @return A map of all class roots (JAR files or directories) and the class names found within them
+     */
+    Map<URI, Collection<String>> collect(Collection<URI> uris, String packageName) {
+        // Example for a JAR URI:
+        //
+        // jar:file:/Users/spaceemotion/Development/bladekit/target/bladekit-commons-1.0-SNAPSHOT.jar!/net/mountainblade
+        //          |--------------------------------- path ----------------------------------------|  |-- pkg root ---|
+        // ^^^^---- is jar                                                      get index of this ---^^
+
+        // Example for a collection of given mixed URIs:
+        //
+        // modules/
+        //  - moduleA.jar!/          <-- root (jar)
+        //     - net                 <-- package start
+        //        - mountainblade
+        //           - Test.class    <-- class
+        //  - moduleB.jar!/ ....
+        //  - demo/
+        //     - moduleC.jar!/ ...
+        // development
+        //  - src                    <-- root (folder)
+        //     - net                 <-- package start
+        //        - mountainblade
+        //           - Test.class    <-- class
+
+        final Map<URI, Collection<String>> classNames;
+
+        if (parallel) {
+            classNames = getPool().invoke(new UrisTask(uris, packageName));
+
+        } else {
+            classNames = new THashMap<>();
+            for (URI uri : uris) {
+                scanUri(uri, packageName, classNames);
+            }
+        }
+
+        return classNames;
+    }
+
+    /**
+     * Persists the scan index (if one is used), so newly scanned JAR files don't need to be opened on the next start.
+     */
+    static void flushIndex() {
+        final ScanIndex scanIndex = index;
+        if (scanIndex != null) {
+            scanIndex.flush();
+        }
+    }
+
+    /**
+     * Collects the declared implementations inside the given URIs, without scanning for classes.
+     *
+     * @param uris           The URIs to look at, can be JAR files or directories
+     * @param packageName    The package prefix, either separated by dots, slashes or the system's separator
+     * @return A map of all class roots (JAR files or directories) and the declared class names within them
+     * @see DiscoveryMode#SERVICES
+     */
+    Map<URI, Collection<String>> discover(Collection<URI> uris, String packageName) {
+        final String prefix = packageName.replace(File.separatorChar, '.').replace('/', '.');
+        final Map<URI, Collection<String>> classNames = new THashMap<>();
+
+        for (URI uri : uris) {
+            discoverUri(uri, prefix, true, classNames);
+        }
+
+        return classNames;
+    }
+
+    private void discoverUri(URI uri, String prefix, boolean descend, Map<URI, Collection<String>> classNames) {
+        final File file = isJar(uri) ? getJarFile(uri) : new File(uri);
+        touch(file);
+
+        if (isBlacklisted(uri, file)) {
+            return;
+        }
+
+        final Collection<String> declared = new TLinkedHashSet<>();
+
+        try {
+            if (NestedJarHandler.isNested(uri)) {
+                final ZipArchive archive = NestedJarHandler.open(uri);
+
+                for (String location : new String[]{SERVICES_LOCATION, ModuleIndex.LOCATION}) {
+                    final ZipArchive.Entry entry = archive.getEntry(location);
+                    if (entry != null) {
+                        readDeclared(location, archive.getInputStream(entry), declared);
+                    }
+                }
+
+            } else if (isJar(uri)) {
+                try (ZipFile zip = new ZipFile(file)) {
+                    for (String location : new String[]{SERVICES_LOCATION, ModuleIndex.LOCATION}) {
+                        final ZipEntry entry = zip.getEntry(location);
+                        if (entry == null) {
+                            continue;
+                        }
+
+                        try (InputStream input = zip.getInputStream(entry)) {
+                            readDeclared(location, input, declared);
+                        }
+                    }
+                }
+
+            } else {
+                boolean found = false;
+
+                for (String location : new String[]{SERVICES_LOCATION, ModuleIndex.LOCATION}) {
+                    final File declarations = new File(file, location);
+                    touch(declarations);
+
+                    if (!declarations.isFile()) {
+                        continue;
+                    }
+
+                    try (InputStream input = new FileInputStream(declarations)) {
+                        readDeclared(location, input, declared);
+                        found = true;
+                    }
+                }
+
+                // Directories without any declarations might be a folder full of plugins
+                final File[] files = found || !descend ? null : file.listFiles();
+                if (files != null) {
+                    for (File child : files) {
+                        if (child.isFile() && child.getName().endsWith(".jar")) {
+                            discoverUri(child.toURI(), prefix, false, classNames);
+                        }
+                    }
+                }
+            }
+
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read declared implementations: " + uri, e);
+        }
+
+        final Collection<String> names = new LinkedList<>();
+        for (String className : declared) {
+            if (className.startsWith(prefix)) {
+                names.add(className);
+            }
+        }
+
+        if (!names.isEmpty()) {
+            classNames.put(uri, names);
+        }
+    }
+
+    private static void readDeclared(String location, InputStream input, Collection<String> names) throws IOException {
+        if (ModuleIndex.LOCATION.equals(location)) {
+            names.addAll(ModuleIndex.read(input).getImplementations());
+            return;
+        }
+
+        // Service files contain one class name per line, everything after a hash sign is a comment
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            final int comment = line.indexOf('#');
+            line = (comment < 0 ? line : line.substring(0, comment)).trim();
+
+            if (!line.isEmpty()) {
+                names.add(line);
+            }
+        }
+    }
+
+    private void scanUri(URI uri, String packageName, Map<URI, Collection<String>> classNames) {
+        // If the uri does not seem to be a jar file, do the directory walk
+        if (!isJar(uri)) {
+            final File parent = new File(uri);
+            touch(parent);
+
+            if (isBlacklisted(uri, parent)) {
+                return;
+            }
+
+            // If the directory has been indexed at build time, we only need to look at the classes it does not cover
+            final ModuleIndex moduleIndex = readDirectoryIndex(parent, packageName, classNames);
+            walkDirectory(parent, parent.toPath(), "", pathBlacklist.start(), moduleIndex, packageName, classNames);
+            return;
+        }
+
+        final Collection<URI> nestedJars = scanJar(uri, packageName, classNames);
+        if (nestedJars.isEmpty()) {
+            return;
+        }
+
+        // Each nested JAR file is a location of its own, so they can be scanned just like the outer one
+        if (parallel) {
+            merge(classNames, new UrisTask(nestedJars, packageName).invoke());
+
+        } else {
+            for (URI nestedJar : nestedJars) {
+                scanUri(nestedJar, packageName, classNames);
+            }
+        }
+    }
+
+    private Collection<URI> scanJar(URI uri, String packageName, Map<URI, Collection<String>> classNames) {
+        // Check if we already have a cached version of the JAR file, and if it's still up to date
+        final File file = getJarFile(uri);
+        touch(file);
+
+        JarContents contents = jarCache.getIfPresent(uri);
+
+        if (contents != null && !contents.stamp.matches(file)) {
+            jarCache.invalidate(uri);
+            invalidate(file.toURI());
+            contents = null;
+        }
+
+        // Entries that were cached before deduplication got enabled still lack their fingerprint, and a listing that
+        // has been pre-screened (or not) by another manager does not contain the classes we'd list
+        if (contents == null || contents.listing.preScreened != preScreen ||
+                deduplicate && contents.fingerprint == null && !NestedJarHandler.isNested(uri)) {
+            contents = readContents(uri, file);
+            jarCache.put(uri, contents);
+        }
+
+        // Copies of a JAR file we already came across don't need to be loaded again
+        if (contents.fingerprint != null && !fingerprints.add(contents.fingerprint)) {
+            return Collections.emptyList();
+        }
+
+        // Even if the JAR file itself does not contain any modules, the ones nested inside of it still might
+        if (!isBlacklisted(uri, file)) {
+            // Entries inside JAR files always use slashes, so we can match both notations against the class name
+            classNames.put(uri, contents.listing.classes.withPrefix(packageName.replace('/', '.')));
+        }
+
+        return contents.nestedJars;
+    }
+
+    private JarContents readContents(URI uri, File file) {
+        // Take the stamp before reading, so we'd notice changes that happen in the meantime
+        final Stamp stamp = new Stamp(file);
+        HashCode fingerprint = null;
+
+        // If we already know a JAR file with the same contents, we can just reuse its listing
+        if (deduplicate && !NestedJarHandler.isNested(uri)) {
+            try {
+                fingerprint = ZipArchive.fingerprint(file);
+
+                final Listing listing = listings.getIfPresent(fingerprint);
+                if (listing != null && listing.preScreened == preScreen) {
+                    return new JarContents(file, stamp, fingerprint, listing);
+                }
+
+            } catch (IOException e) {
+                LOG.log(Level.FINE, "Could not create fingerprint of JAR file: " + file, e);
+            }
+        }
+
+        // Then try the persistent index before we actually open the file
+        final ScanIndex scanIndex = index;
+        Collection<String> names = null;
+
+        if (scanIndex != null) {
+            names = scanIndex.get(uri.toString(), file, preScreen);
+        }
+
+        if (names == null) {
+            names = readJar(uri, file);
+
+            if (scanIndex != null) {
+                scanIndex.put(uri.toString(), stamp.size, stamp.lastModified, preScreen, names);
+            }
+        }
+
+        final Listing listing = new Listing(names, preScreen);
+        if (fingerprint != null) {
+            listings.put(fingerprint, listing);
+        }
+
+        return new JarContents(file, stamp, fingerprint, listing);
+    }
+
+    private Collection<String> readJar(URI uri, File file) {
+        final Collection<String> names = new LinkedList<>();
+
+        // Get appropriate class names by removing trailing .class and convert the file name to a usable class name.
+        // Opening the file as a zip only reads its central directory, so we never need to inflate any entries
+        if (NestedJarHandler.isNested(uri)) {
+            try {
+                return readArchive(NestedJarHandler.open(uri), preScreen);
+
+            } catch (IOException e) {
+                throw new RuntimeException("Could not fetch nested JAR file contents: " + uri, e);
+            }
+        }
+
+        try (ZipFile zip = new ZipFile(file)) {
+            // The author of the JAR file can tell us to skip it, or where to look for modules
+            final ZipEntry manifestEntry = zip.getEntry(JarFile.MANIFEST_NAME);
+            ScanHints hints = ScanHints.NONE;
+
+            if (manifestEntry != null) {
+                try (InputStream input = zip.getInputStream(manifestEntry)) {
+                    hints = new ScanHints(input);
+                }
+            }
+
+            if (!hints.scan) {
+                return names;
+            }
+
+            // If the JAR contains a module index, we only need to look at the listed implementations of its packages
+            final ZipEntry indexEntry = zip.getEntry(ModuleIndex.LOCATION);
+            ModuleIndex moduleIndex = null;
+
+            if (indexEntry != null) {
+                try (InputStream input = zip.getInputStream(indexEntry)) {
+                    moduleIndex = ModuleIndex.read(input);
+                    readIndex(moduleIndex, hints, names);
+                }
+            }
+
+            final Collection<String> scanned = new LinkedList<>();
+            final Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                addEntry(entry.getName(), entry.isDirectory(), moduleIndex, true, hints, scanned);
+            }
+
+            // Only keep the classes that could be implementations, so we never need to look at the others again
+            if (preScreen) {
+                final Iterator<String> iterator = scanned.iterator();
+
+                while (iterator.hasNext()) {
+                    final ZipEntry entry = zip.getEntry(getClassFileName(iterator.next()));
+                    if (entry != null && !mightBeImplementation(zip.getInputStream(entry))) {
+                        iterator.remove();
+                    }
+                }
+            }
+
+            names.addAll(scanned);
+
+        } catch (IOException e) {
+            throw new RuntimeException("Could not fetch JAR file contents: " + uri + " (using " + file + ')', e);
+        }
+
+        return names;
+    }
+
+    /**
+     * Reads the class names of the given archive, the same way the ones of a JAR file are read.
+     * Archives inside of the given one will be ignored.
+     *
+     * <p>When pre-screening, every class file of an archive without a module index gets read, and only the ones
+     * that could be implementations will be listed. This way, libraries without any modules end up with an empty
+     * listing, which is cached (and persisted in the scan index) just like any other.</p>
+     *
+     * @param archive      The archive to read
+     * @param preScreen    True if only the classes that could be implementations should be listed
+     * @return A collection of class names
+     * @throws IOException if the manifest or module index could not be read
+     */
+    static Collection<String> readArchive(ZipArchive archive, boolean preScreen) throws IOException {
+        final Collection<String> names = new LinkedList<>();
+
+        final ZipArchive.Entry manifestEntry = archive.getEntry(JarFile.MANIFEST_NAME);
+        final ScanHints hints = manifestEntry != null ?
+                new ScanHints(archive.getInputStream(manifestEntry)) : ScanHints.NONE;
+        if (!hints.scan) {
+            return names;
+        }
+
+        final ZipArchive.Entry indexEntry = archive.getEntry(ModuleIndex.LOCATION);
+        ModuleIndex moduleIndex = null;
+
+        if (indexEntry != null) {
+            moduleIndex = ModuleIndex.read(archive.getInputStream(indexEntry));
+            readIndex(moduleIndex, hints, names);
+        }
+
+        final Collection<String> scanned = new LinkedList<>();
+        for (ZipArchive.Entry entry : archive.getEntries()) {
+            addEntry(entry.getName(), entry.isDirectory(), moduleIndex, false, hints, scanned);
+        }
+
+        if (preScreen) {
+            final Iterator<String> iterator = scanned.iterator();
+
+            while (iterator.hasNext()) {
+                final ZipArchive.Entry entry = archive.getEntry(getClassFileName(iterator.next()));
+                if (entry != null && !mightBeImplementation(archive.getInputStream(entry))) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        names.addAll(scanned);
+        return names;
+    }
+
+    private static void readIndex(ModuleIndex moduleIndex, ScanHints hints, Collection<String> names) {
+        for (String implementation : moduleIndex.getImplementations()) {
+            if (hints.accepts(implementation)) {
+                names.add(implementation);
+            }
+        }
+    }
+
+    private static void addEntry(String name, boolean directory, ModuleIndex moduleIndex, boolean nestingAllowed,
+                                 ScanHints hints, Collection<String> names) {
+        if (directory) {
+            return;
+        }
+
+        // Nested JAR files get stored along with the class names, but we can tell them apart by their prefix
+        if (name.endsWith(".jar")) {
+            if (nestingAllowed) {
+                names.add(NESTED_PREFIX + name);
+            }
+
+            return;
+        }
+
+        if (!name.endsWith(".class")) {
+            return;
+        }
+
+        // Classes of the packages the index covers have already been taken from there
+        name = getProperClassName(name);
+        if (!name.endsWith("package-info") && hints.accepts(name) &&
+                (moduleIndex == null || !moduleIndex.covers(name))) {
+            names.add(name);
+        }
+    }
+
+    private ModuleIndex readDirectoryIndex(File root, String packageName, Map<URI, Collection<String>> names) {
+        final File indexFile = new File(root, ModuleIndex.LOCATION);
+        touch(indexFile);
+
+        if (!indexFile.isFile()) {
+            return null;
+        }
+
+        final ModuleIndex moduleIndex;
+        final Collection<String> classNames = new LinkedList<>();
+
+        try (InputStream input = new FileInputStream(indexFile)) {
+            moduleIndex = ModuleIndex.read(input);
+
+            for (String className : moduleIndex.getImplementations()) {
+                // Check the package the same way we do it for the actual class files
+                if ((className.replace('.', File.separatorChar) + ".class").startsWith(packageName)) {
+                    classNames.add(className);
+                }
+            }
+
+        } catch (IOException e) {
+            throw new RuntimeException("Could not read module index: " + indexFile, e);
+        }
+
+        if (!classNames.isEmpty()) {
+            names.put(root.toURI(), classNames);
+        }
+
+        return moduleIndex;
+    }
+
+    private void walkDirectory(File root, Path directory, String relative, PathBlacklist.State state,
+                               ModuleIndex moduleIndex, String packageName, Map<URI, Collection<String>> names) {
+        final Collection<ForkJoinTask<Map<URI, Collection<String>>>> tasks = new LinkedList<>();
+        Boolean directoryIsRoot = null;
+
+        // New entries change the modification time of the directory, so we'd notice them in a snapshot
+        touch(directory.toFile());
+
+        // Continue to look up valid files within the directory, the stream only reads the names and no attributes
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                final String name = file.getFileName().toString();
+                // Blacklisted directories are never entered, so nothing below them gets looked at either
+                if (pathBlacklist.matches(state, name)) {
+                    continue;
+                }
+
+                // Only add class files, unless they have already been taken from the index. We don't check the
+                // attributes of those as there are usually lots of them and no sane person names a folder like that
+                if (name.endsWith(".class")) {
+                    // If we have a root path check if we're in the right package
+                    final String path = relative + name;
+                    if (!path.startsWith(packageName)) {
+                        continue;
+                    }
+
+                    final String className = getProperClassName(path);
+                    if (className.endsWith("package-info") || moduleIndex != null && moduleIndex.covers(className)) {
+                        continue;
+                    }
+
+                    final URI rootUri = root.toURI();
+                    Collection<String> classNames = names.get(rootUri);
+                    if (classNames == null) {
+                        classNames = new LinkedList<>();
+                        names.put(rootUri, classNames);
+                    }
+
+                    classNames.add(className);
+                    continue;
+                }
+
+                // Check if the current file is a directory, and if it is, check if its a classpath (and thus a root)
+                if (Files.isDirectory(file)) {
+                    if (directoryIsRoot == null) {
+                        directoryIsRoot = classpath.contains(directory.toFile().toURI());
+                    }
+
+                    final File newRoot = directoryIsRoot ? directory.toFile().getAbsoluteFile() : root;
+                    final String path = (directoryIsRoot ? "" : relative) + name + File.separatorChar;
+
+                    // Don't descend into package directories that cannot contain any of the classes we look for
+                    if (!path.startsWith(packageName) && !packageName.startsWith(path) &&
+                            !classpath.contains(file.toFile().toURI())) {
+                        continue;
+                    }
+
+                    // The index only belongs to its own root, not to the ones nested inside of it
+                    final PathBlacklist.State childState = pathBlacklist.enter(state, name);
+                    final ModuleIndex childIndex = newRoot.equals(root) ? moduleIndex : null;
+
+                    if (parallel) {
+                        tasks.add(new DirectoryTask(newRoot, file, path, childState, childIndex, packageName).fork());
+                    } else {
+                        walkDirectory(newRoot, file, path, childState, childIndex, packageName, names);
+                    }
+
+                    continue;
+                }
+
+                // Check for JAR files and do the whole thing over again
+                if (name.endsWith(".jar")) {
+                    if (parallel) {
+                        tasks.add(new UrisTask(Collections.singleton(file.toFile().toURI()), packageName).fork());
+                    } else {
+                        scanUri(file.toFile().toURI(), packageName, names);
+                    }
+                }
+            }
+
+        } catch (NotDirectoryException | NoSuchFileException ignore) {
+            // Nothing to walk here
+
+        } catch (IOException e) {
+            throw new RuntimeException("Could not list directory contents: " + directory, e);
+
+        } finally {
+            // Merge the results of our sub-tasks, if we spawned any
+            for (ForkJoinTask<Map<URI, Collection<String>>> task : tasks) {
+                merge(names, task.join());
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot of all files and directories that have been looked at by this scanner so far.
+     *
+     * @return The snapshot
+     */
+    Snapshot getSnapshot() {
+        return new Snapshot(touched);
+    }
+
+    private void touch(File file) {
+        if (!touched.containsKey(file)) {
+            touched.put(file, new Stamp(file));
+        }
+    }
+
+    /**
+     * Adds the given URI to the blacklist, so it will be skipped during the next scans.
+     *
+     * @param uri    The URI to blacklist
+     */
+    static void blacklist(URI uri) {
+        blacklist.put(uri, new Stamp(isJar(uri) ? getJarFile(uri) : new File(uri)));
+    }
+
+    private static boolean isBlacklisted(URI uri, File file) {
+        final Stamp stamp = blacklist.getIfPresent(uri);
+        if (stamp == null) {
+            return false;
+        }
+
+        // The location has changed since we last looked at it, so there might be some modules now
+        if (!stamp.matches(file)) {
+            blacklist.invalidate(uri);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes all cached information about the given URI, so it will be scanned again.
+     *
+     * @param uri    The URI that has been changed
+     */
+    static void invalidate(URI uri) {
+        final JarContents contents = jarCache.getIfPresent(uri);
+        jarCache.invalidate(uri);
+        blacklist.invalidate(uri);
+
+        // Also forget about all JAR files nested inside of it
+        if (contents != null) {
+            jarCache.invalidateAll(contents.nestedJars);
+            blacklist.invalidateAll(contents.nestedJars);
+        }
+
+        NestedJarHandler.invalidate(uri);
+    }
+
+    /**
+     * Replaces the JAR cache and the blacklist with new ones of the given size, dropping all entries.
+     *
+     * @param size    The maximum number of entries each of them can hold
+     */
+    static void setCacheSize(long size) {
+        jarCache = newCache(size);
+        listings = newCache(size);
+        blacklist = newCache(size);
+    }
+
+    /**
+     * Toggles the deduplication of JAR files with the same contents.
+     *
+     * @param toggle    True if enabled, false if not
+     */
+    static void setDeduplication(boolean toggle) {
+        deduplicate = toggle;
+    }
+
+    /**
+     * Gets the statistics of the JAR cache.
+     *
+     * @return The statistics of the current cache
+     */
+    static CacheStats getCacheStats() {
+        return jarCache.stats();
+    }
+
+    private static <K, V> Cache<K, V> newCache(long size) {
+        return CacheBuilder.newBuilder().maximumSize(size).recordStats().build();
+    }
+
+    /**
+     * Sets the persistent scan index to use, or disables it if null is given.
+     *
+     * @param scanIndex    The index to use, can be null
+     */
+    static void setIndex(ScanIndex scanIndex) {
+        index = scanIndex;
+    }
+
+    /**
+     * Gets the actual file of the given JAR URI. For nested JAR files this is the outermost file.
+     *
+     * @param uri    The URI of the JAR file
+     * @return The JAR file
+     */
+    static File getJarFile(URI uri) {
+        // Get the proper JAR file from the URI
+        final String scheme = uri.getSchemeSpecificPart();
+        final int divider = scheme.indexOf("!/");
+
+        return new File(divider < 0 ? scheme : scheme.substring(0, divider).replace("file:", ""));
+    }
+
+    private static boolean isJar(URI uri) {
+        return uri.getScheme().equalsIgnoreCase("jar") || uri.getSchemeSpecificPart().endsWith(".jar");
+    }
+
+    private static String getClassFileName(String className) {
+        return className.replace('.', '/') + ".class";
+    }
+
+    private static boolean mightBeImplementation(InputStream input) {
+        try (InputStream classFile = input) {
+            return ClassFile.read(classFile).isImplementation();
+
+        } catch (IOException | RuntimeException e) {
+            // Let the module loader decide what to do with it
+            return true;
+        }
+    }
+
+    private static String getProperClassName(String name) {
+        return name.substring(0, name.length() - ".class".length()).replace("\\", "/").replace("/", ".");
+    }
+
+    private static void merge(Map<URI, Collection<String>> target, Map<URI, Collection<String>> source) {
+        for (Map.Entry<URI, Collection<String>> entry : source.entrySet()) {
+            final Collection<String> existing = target.get(entry.getKey());
+
+            if (existing == null) {
+                target.put(entry.getKey(), entry.getValue());
+
+            } else if (!isJar(entry.getKey())) {
+                // Only directory roots can be split up between tasks, a JAR file always has the same contents
+                existing.addAll(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Gets the fork-join pool shared by all parallel scans and class loading tasks, creating it on first use.
+     *
+     * @return The shared pool
+     */
+    static synchronized ForkJoinPool getPool() {
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+
+        return pool;
+    }
+
+
+    /**
+     * Represents the class names and nested JAR entries of a JAR file, which can be shared by identical copies.
+     */
+    private static final class Listing {
+        private final ClassNameIndex classes;
+        private final Collection<String> nestedEntries;
+        private final boolean preScreened;
+
+
+        private Listing(Collection<String> names, boolean preScreened) {
+            final Collection<String> classNames = new LinkedList<>();
+            final Collection<String> nested = new LinkedList<>();
+
+            for (String name : names) {
+                if (name.startsWith(NESTED_PREFIX)) {
+                    nested.add(name.substring(NESTED_PREFIX.length()));
+                } else {
+                    classNames.add(name);
+                }
+            }
+
+            this.classes = new ClassNameIndex(classNames);
+            this.nestedEntries = nested;
+            this.preScreened = preScreened;
+        }
+
+    }
+
+    /**
+     * Represents the cached contents of a single JAR file.
+     */
+    private static final class JarContents {
+        private final Stamp stamp;
+        private final HashCode fingerprint;
+        private final Listing listing;
+        private final Collection<URI> nestedJars;
+
+
+        private JarContents(File file, Stamp stamp, HashCode fingerprint, Listing listing) {
+            this.stamp = stamp;
+            this.fingerprint = fingerprint;
+            this.listing = listing;
+            this.nestedJars = new LinkedList<>();
+
+            for (String entry : listing.nestedEntries) {
+                nestedJars.add(NestedJarHandler.toUri(file, entry));
+            }
+        }
+
+    }
+
+    /**
+     * Represents the scan hints a JAR file declared in its manifest.
+     */
+    private static final class ScanHints {
+        private static final ScanHints NONE = new ScanHints(true, Collections.<String>emptyList());
+
+        private final boolean scan;
+        private final Collection<String> packages;
+
+
+        private ScanHints(boolean scan, Collection<String> packages) {
+            this.scan = scan;
+            this.packages = packages;
+        }
+
+        private ScanHints(InputStream manifest) throws IOException {
+            final Attributes attributes = new Manifest(manifest).getMainAttributes();
+            this.scan = !"false".equalsIgnoreCase(trim(attributes.getValue(SCAN_ATTRIBUTE)));
+            this.packages = new LinkedList<>();
+
+            final String packageList = attributes.getValue(PACKAGES_ATTRIBUTE);
+            if (packageList != null) {
+                for (String packageName : packageList.split("[,\\s]+")) {
+                    if (!packageName.isEmpty()) {
+                        packages.add(packageName + '.');
+                    }
+                }
+            }
+        }
+
+        private boolean accepts(String className) {
+            if (packages.isEmpty()) {
+                return true;
+            }
+
+            for (String packageName : packages) {
+                if (className.startsWith(packageName)) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private static String trim(String value) {
+            return value != null ? value.trim() : null;
+        }
+
+    }
+
+    /**
+     * Represents the size and modification time of a file or directory at a given point in time.
+     */
+    private static final class Stamp {
+        private final long size;
+        private final long lastModified;
+
+
+        private Stamp(File file) {
+            this.size = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        private boolean matches(File file) {
+            return file.length() == size && file.lastModified() == lastModified;
+        }
+
+    }
+
+    /**
+     * Represents the state of all files and directories a scan has looked at, to check whether it would still yield
+     * the same result. As directories change whenever entries get added or removed, this does not need to list any
+     * of them again.
+     */
+    static final class Snapshot {
+        private final Map<File, Stamp> stamps;
+
+
+        private Snapshot(Map<File, Stamp> stamps) {
+            this.stamps = new THashMap<>(stamps);
+        }
+
+        /**
+         * Checks whether or not none of the files and directories have changed since the snapshot has been taken.
+         *
+         * @return True if nothing changed
+         */
+        boolean isUpToDate() {
+            for (Map.Entry<File, Stamp> entry : stamps.entrySet()) {
+                if (!entry.getValue().matches(entry.getKey())) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+    }
+
+    /**
+     * Represents a task that scans a collection of URIs.
+     */
+    private final class UrisTask extends RecursiveTask<Map<URI, Collection<String>>> {
+        private final Collection<URI> uris;
+        private final String packageName;
+
+
+        private UrisTask(Collection<URI> uris, String packageName) {
+            this.uris = uris;
+            this.packageName = packageName;
+        }
+
+        @Override
+        protected Map<URI, Collection<String>> compute() {
+            final Map<URI, Collection<String>> names = new THashMap<>();
+
+            // Scan a single location directly, otherwise split up and fork one task per location
+            if (uris.size() == 1) {
+                scanUri(uris.iterator().next(), packageName, names);
+                return names;
+            }
+
+            final Collection<UrisTask> tasks = new LinkedList<>();
+            for (URI uri : uris) {
+                tasks.add(new UrisTask(Collections.singleton(uri), packageName));
+            }
+
+            for (UrisTask task : invokeAll(tasks)) {
+                merge(names, task.join());
+            }
+
+            return names;
+        }
+
+    }
+
+    /**
+     * Represents a task that walks a directory sub-tree.
+     */
+    private final class DirectoryTask extends RecursiveTask<Map<URI, Collection<String>>> {
+        private final File root;
+        private final Path directory;
+        private final String relative;
+        private final PathBlacklist.State state;
+        private final ModuleIndex moduleIndex;
+        private final String packageName;
+
+
+        private DirectoryTask(File root, Path directory, String relative, PathBlacklist.State state,
+                              ModuleIndex moduleIndex, String packageName) {
+            this.root = root;
+            this.directory = directory;
+            this.relative = relative;
+            this.state = state;
+            this.moduleIndex = moduleIndex;
+            this.packageName = packageName;
+        }
+
+        @Override
+        protected Map<URI, Collection<String>> compute() {
+            final Map<URI, Collection<String>> names = new THashMap<>();
+            walkDirectory(root, directory, relative, state, moduleIndex, packageName, names);
+
+            return names;
+        }
+
+    }
+
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.set.hash.TLinkedHashSet;
+import net.mountainblade.modular.Filter;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Represents a watcher that loads the modules of new JAR files inside a directory.
+ *
+ * <p>Only the new JAR file gets scanned and its modules get merged into the manager's registry, the rest
+ * of the directory stays untouched. As JAR files usually get written in multiple steps, a file is only picked
+ * up after it did not change for a short while. Loading happens through the manager's synchronized methods, so
+ * it never overlaps with loads of other threads.</p>
+ *
+ * <p>JAR files that get replaced in place are skipped, as the manager's realm keeps using the file it opened
+ * first and would never see the new contents.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class DirectoryWatcher extends Destroyable implements Closeable, Runnable {
+    private static final Logger LOG = Logger.getLogger(DirectoryWatcher.class.getName());
+
+    /** The time in milliseconds a file needs to stay untouched before we load it */
+    private static final long SETTLE_TIME = 500;
+
+    private final BaseModuleManager manager;
+    private final Path directory;
+    private final Filter[] filters;
+    private final WatchService watchService;
+
+
+    /**
+     * Creates a new watcher and registers it with the file system.
+     *
+     * @param manager      The manager to load the modules with
+     * @param directory    The directory to watch
+     * @param filters      The filters to apply when loading modules
+     * @throws IOException if the directory could not be watched
+     */
+    DirectoryWatcher(BaseModuleManager manager, File directory, Filter... filters) throws IOException {
+        this.manager = manager;
+        this.directory = directory.toPath();
+        this.filters = filters;
+        this.watchService = this.directory.getFileSystem().newWatchService();
+
+        this.directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    /**
+     * Starts watching the directory on a new daemon thread.
+     */
+    void start() {
+        final Thread thread = new Thread(this, "modular-watcher-" + directory.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        final Collection<Path> pending = new TLinkedHashSet<>();
+
+        try {
+            while (true) {
+                // Wait for the changes to settle down before we touch any of the pending files
+                final WatchKey key = pending.isEmpty() ? watchService.take() :
+                        watchService.poll(SETTLE_TIME, TimeUnit.MILLISECONDS);
+
+                if (key == null) {
+                    for (Path file : pending) {
+                        load(file);
+                    }
+
+                    pending.clear();
+                    continue;
+                }
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    // If we missed some events, just have a look at the whole directory again
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        pending.add(directory);
+                        continue;
+                    }
+
+                    final Path file = directory.resolve((Path) event.context());
+                    if (file.getFileName().toString().endsWith(".jar")) {
+                        pending.add(file);
+                    }
+                }
+
+                if (!key.reset()) {
+                    LOG.warning("Watched directory is no longer accessible: " + directory);
+                    return;
+                }
+            }
+
+        } catch (InterruptedException | ClosedWatchServiceException ignore) {
+            // We got closed, nothing to do here
+        }
+    }
+
+    private void load(Path file) {
+        final URI uri = file.toFile().toURI();
+        if (manager.containsRoot(uri)) {
+            LOG.warning("Ignoring replaced JAR file, its new contents cannot be loaded by the same manager: " + file);
+            return;
+        }
+
+        try {
+            // Make sure we don't get old contents from the caches
+            ClassPathScanner.invalidate(uri);
+            manager.loadModules(file.toFile(), filters);
+
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Could not load modules from changed file: " + file, e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    @Override
+    protected void destroy() {
+        try {
+            close();
+
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not close directory watcher: " + directory, e);
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+/**
+ * Represents the way a module manager discovers the module implementations inside a location.
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+public enum DiscoveryMode {
+    /**
+     * Walks all directories and JAR files and looks at every class inside of them (the default).
+     * If a location contains a {@link ModuleIndex module index}, only the listed implementations will be used for
+     * the packages it covers.
+     */
+    SCAN,
+
+    /**
+     * Only uses the implementations that have been declared, without looking at any other class.
+     *
+     * <p>The implementations can be declared in a {@code META-INF/services/net.mountainblade.modular.Module} file,
+     * like it's done for a {@link java.util.ServiceLoader}, or in a {@link ModuleIndex module index}. Each given
+     * directory and JAR file gets checked for those, directories without them are checked for JAR files
+     * (without descending into sub-directories).</p>
+     */
+    SERVICES
+
+}
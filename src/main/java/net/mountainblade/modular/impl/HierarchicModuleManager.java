@@ -57,19 +57,19 @@ public class HierarchicModuleManager extends BaseModuleManager {
     }
 
     @Override
-    public <M extends Module> Optional<M> getModule(Class<M> module) {
+    public synchronized <M extends Module> Optional<M> getModule(Class<M> module) {
         Optional<M> parentModule = parent.getModule(module);
         return parentModule.isPresent() ? parentModule : super.getModule(module);
     }
 
     @Override
-    public Optional<ModuleInformation> getInformation(Class<? extends Module> module) {
+    public synchronized Optional<ModuleInformation> getInformation(Class<? extends Module> module) {
         Optional<ModuleInformation> parentInfo = parent.getInformation(module);
         return parentInfo.isPresent() ? parentInfo : super.getInformation(module);
     }
 
     @Override
-    public void shutdown() {
+    public synchronized void shutdown() {
         shutdown(false);
     }
 
@@ -78,7 +78,7 @@ public class HierarchicModuleManager extends BaseModuleManager {
      *
      * @param withParent    True if the parent should also be shut down, false if not
      */
-    public void shutdown(boolean withParent) {
+    public synchronized void shutdown(boolean withParent) {
         final HierarchicModuleRegistry registry = (HierarchicModuleRegistry) getRegistry();
         shutdown(withParent ? registry.getModules().iterator() : registry.getChildModules());
     }
@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.set.hash.TLinkedHashSet;
+import org.codehaus.plexus.classworlds.realm.ClassRealm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Represents an index of all module implementations of a class path by the types they directly extend or implement.
+ *
+ * <p>The index only reads the class files, so none of the classes get defined while building it. As the real module
+ * of an implementation depends on its whole type hierarchy (and the ignored module classes), the index is just a
+ * lookup for likely candidates: Explicitly declared modules are stored by their name, all others by the names of
+ * their direct interfaces and superclass.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class ImplementationIndex {
+    private static final Logger LOG = Logger.getLogger(ImplementationIndex.class.getName());
+
+    private final Map<String, Collection<String>> implementations;
+    private final Collection<String> all;
+    private final ClassPathScanner.Snapshot snapshot;
+
+
+    private ImplementationIndex(Map<String, Collection<String>> implementations, Collection<String> all,
+                                ClassPathScanner.Snapshot snapshot) {
+        this.implementations = implementations;
+        this.all = all;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Builds the index by reading the class files of the given class names.
+     *
+     * @param realm         The realm to read the class files from, the class roots need to be added beforehand
+     * @param classNames    The class names by their class root
+     * @param snapshot      The snapshot of the scan the class names are from
+     * @return The new index
+     */
+    static ImplementationIndex build(ClassRealm realm, Map<URI, Collection<String>> classNames,
+                                     ClassPathScanner.Snapshot snapshot) {
+        final Map<String, Collection<String>> implementations = new THashMap<>();
+        final Collection<String> all = new TLinkedHashSet<>();
+
+        for (Collection<String> names : classNames.values()) {
+            for (String className : names) {
+                final ClassFile classFile = read(realm, className);
+                if (classFile == null || !classFile.isImplementation()) {
+                    continue;
+                }
+
+                all.add(className);
+
+                if (classFile.getImplementedModule() != null) {
+                    add(implementations, classFile.getImplementedModule(), className);
+                    continue;
+                }
+
+                for (String anInterface : classFile.getInterfaces()) {
+                    add(implementations, anInterface, className);
+                }
+
+                if (classFile.getSuperName() != null) {
+                    add(implementations, classFile.getSuperName(), className);
+                }
+            }
+        }
+
+        return new ImplementationIndex(implementations, all, snapshot);
+    }
+
+    private static ClassFile read(ClassRealm realm, String className) {
+        final InputStream input = realm.getResourceAsStream(className.replace('.', '/') + ".class");
+        if (input == null) {
+            return null;
+        }
+
+        try (InputStream classFile = input) {
+            return ClassFile.read(classFile);
+
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.FINE, "Could not read class file, skipping it: " + className, e);
+            return null;
+        }
+    }
+
+    private static void add(Map<String, Collection<String>> implementations, String type, String className) {
+        Collection<String> names = implementations.get(type);
+        if (names == null) {
+            names = new LinkedList<>();
+            implementations.put(type, names);
+        }
+
+        names.add(className);
+    }
+
+    /**
+     * Gets the names of all implementations that directly extend, implement or declare the given type.
+     *
+     * @param type    The binary name of the module type
+     * @return An unmodifiable collection of class names
+     */
+    Collection<String> get(String type) {
+        final Collection<String> names = implementations.get(type);
+        return names == null ? Collections.<String>emptyList() : Collections.unmodifiableCollection(names);
+    }
+
+    /**
+     * Gets the names of all implementations inside the index.
+     *
+     * @return An unmodifiable collection of class names
+     */
+    Collection<String> getAll() {
+        return Collections.unmodifiableCollection(all);
+    }
+
+    /**
+     * Checks whether or not the class path has not changed since the index has been built.
+     *
+     * @return True if the index is still up to date
+     */
+    boolean isUpToDate() {
+        return snapshot.isUpToDate();
+    }
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import org.codehaus.plexus.classworlds.realm.ClassRealm;
+import org.codehaus.plexus.classworlds.strategy.AbstractStrategy;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Enumeration;
+
+/**
+ * Represents a loading strategy that looks up the realm of a class by its package, instead of probing every realm
+ * (and every URL of each realm) one after another.
+ *
+ * <p>Module managers record the packages of all classes they find in a location once the location gets added to
+ * their realm. Classes and resources of those packages are loaded from the topmost realm in the hierarchy that
+ * contains the package, so they resolve the same way for every child. Packages the application's class loader can
+ * see as well are never recorded, so everything else (like the classes of the JDK, the application or modular
+ * itself) is loaded parent first, like with the {@link org.codehaus.plexus.classworlds.strategy.ParentFirstStrategy}.
+ * </p>
+ *
+ * <p>Please note that this strategy only works with realms created by
+ * {@link BaseModuleManager#newRealm(ClassRealm, ClassLoader)}, other realms do not keep track of their packages.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+public class IndexedStrategy extends AbstractStrategy {
+
+    /**
+     * Creates a new indexed strategy for the given realm.
+     *
+     * @param realm    The realm to load classes for
+     */
+    public IndexedStrategy(ClassRealm realm) {
+        super(realm);
+    }
+
+    @Override
+    public Class<?> loadClass(String name) throws ClassNotFoundException {
+        Class<?> aClass = realm.loadClassFromImport(name);
+
+        if (aClass == null) {
+            aClass = loadIndexedClass(name);
+        }
+
+        if (aClass == null) {
+            aClass = realm.loadClassFromParent(name);
+        }
+
+        if (aClass == null) {
+            aClass = realm.loadClassFromSelf(name);
+        }
+
+        if (aClass == null) {
+            throw new ClassNotFoundException(name);
+        }
+
+        return aClass;
+    }
+
+    /**
+     * Loads the given class from the realm that contains its package, if any realm does.
+     *
+     * @param name    The binary name of the class
+     * @return The class or null if its package is unknown or the realm could not find it
+     */
+    Class<?> loadIndexedClass(String name) {
+        final int index = name.lastIndexOf('.');
+        final ClassRealm owner = getOwner(index < 0 ? "" : name.substring(0, index));
+
+        if (owner == null) {
+            return null;
+        }
+
+        if (owner == realm) {
+            return realm.loadClassFromSelf(name);
+        }
+
+        try {
+            return owner.loadClass(name);
+
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public URL getResource(String name) {
+        final String resource = getNormalizedResource(name);
+        URL url = realm.loadResourceFromImport(resource);
+
+        if (url == null) {
+            url = loadIndexedResource(resource);
+        }
+
+        if (url == null) {
+            url = realm.loadResourceFromParent(resource);
+        }
+
+        if (url == null) {
+            url = realm.loadResourceFromSelf(resource);
+        }
+
+        return url;
+    }
+
+    /**
+     * Loads the given resource from the realm that contains its package, if any realm does.
+     *
+     * @param name    The name of the resource, without a leading slash
+     * @return The resource URL or null if its package is unknown or the realm could not find it
+     */
+    URL loadIndexedResource(String name) {
+        final int index = name.lastIndexOf('/');
+        final ClassRealm owner = getOwner(index < 0 ? "" : name.substring(0, index).replace('/', '.'));
+
+        return owner != null ? owner.loadResourceFromSelf(name) : null;
+    }
+
+    @Override
+    public Enumeration<URL> getResources(String name) throws IOException {
+        // Resources can exist in multiple locations, so we have to ask all of them
+        final String resource = getNormalizedResource(name);
+
+        return combineResources(realm.loadResourcesFromImport(resource), realm.loadResourcesFromParent(resource),
+                realm.loadResourcesFromSelf(resource));
+    }
+
+    private ClassRealm getOwner(String packageName) {
+        ClassRealm owner = null;
+
+        // The topmost realm wins, so every child realm resolves the package to the same classes
+        for (ClassRealm current = realm; current != null; current = current.getParentRealm()) {
+            if (current instanceof ModuleRealm && ((ModuleRealm) current).containsPackage(packageName)) {
+                owner = current;
+            }
+        }
+
+        return owner;
+    }
+
+}
@@ -0,0 +1,303 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import com.google.common.base.Throwables;
+import gnu.trove.map.hash.THashMap;
+import gnu.trove.set.hash.THashSet;
+import gnu.trove.set.hash.TLinkedHashSet;
+import net.mountainblade.modular.Filter;
+import net.mountainblade.modular.Module;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.logging.Logger;
+
+/**
+ * Represents a single, pipelined loading procedure of a module manager.
+ *
+ * <p>Instead of scanning all locations, loading all classes and then instantiating all modules one after another,
+ * each location gets passed on as soon as it's done: A scanning thread feeds a class loading thread, which feeds the
+ * thread that called {@link #run()}. Modules get instantiated as soon as all of their dependencies have been loaded,
+ * the remaining ones are loaded in topological order once all locations have been processed.</p>
+ *
+ * <p>The other threads only touch the manager's realm, the found roots get added to its class path by the thread
+ * that called {@link #run()}.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class LoadingPipeline {
+    private static final Logger LOG = Logger.getLogger(LoadingPipeline.class.getName());
+
+    /** Marks the end of the scanned class names */
+    private static final Map<URI, Collection<String>> NO_MORE_CLASS_NAMES = new THashMap<>();
+
+    /** Marks the end of the loaded candidates */
+    private static final Collection<Class<? extends Module>> NO_MORE_CANDIDATES = new LinkedList<>();
+
+    private final BaseModuleManager manager;
+    private final ModuleLoader loader;
+    private final ClassPathScanner scanner;
+    private final Collection<URI> uris;
+    private final String packageName;
+    private final Filter[] filters;
+
+    private final BlockingQueue<Map<URI, Collection<String>>> classNames;
+    private final BlockingQueue<Collection<Class<? extends Module>>> candidates;
+
+    /** The roots found by the scanning thread, which need to be added to the manager's class path by ours */
+    private final Queue<URI> roots;
+
+    private volatile boolean cancelled;
+    private volatile Throwable failure;
+
+
+    /**
+     * Creates a new pipeline.
+     *
+     * @param manager        The manager to load the modules with
+     * @param scanner        The scanner to scan the locations with
+     * @param uris           The URIs to load the modules from
+     * @param packageName    The root package name to look for
+     * @param filters        An array of filters to use
+     */
+    LoadingPipeline(BaseModuleManager manager, ClassPathScanner scanner, Collection<URI> uris, String packageName,
+                    Filter... filters) {
+        this.manager = manager;
+        this.loader = manager.getLoader();
+        this.scanner = scanner;
+        this.uris = uris;
+        this.packageName = packageName;
+        this.filters = filters;
+
+        this.classNames = new LinkedBlockingQueue<>();
+        this.candidates = new LinkedBlockingQueue<>();
+        this.roots = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Runs the pipeline and waits until all modules have been loaded.
+     *
+     * @return A collection of all successfully loaded modules
+     * @throws RuntimeException if any of the stages failed, errors get rethrown just like in a serial load
+     */
+    Collection<Module> run() {
+        start(new Scanner(), "modular-scanner");
+        start(new ClassLoading(), "modular-class-loader");
+
+        final Collection<Class<? extends Module>> seen = new TLinkedHashSet<>();
+        final Collection<ModuleLoader.ClassEntry> pending = new TLinkedHashSet<>();
+        final Collection<ModuleLoader.ClassEntry> loaded = new THashSet<>();
+        final Collection<Module> modules = new LinkedList<>();
+
+        try {
+            Collection<Class<? extends Module>> batch;
+            while ((batch = candidates.take()) != NO_MORE_CANDIDATES) {
+                addRoots();
+                seen.addAll(batch);
+
+                // Sub-implementations that have been found just now replace the ones we did not load yet
+                final Iterator<ModuleLoader.ClassEntry> iterator = pending.iterator();
+                while (iterator.hasNext()) {
+                    if (loader.candidateIsObsolete(iterator.next().getImplementation(), batch)) {
+                        iterator.remove();
+                    }
+                }
+
+                final Collection<ModuleLoader.ClassEntry> entries = loader.getClassEntries(batch, seen);
+                manager.applyFilters(entries, filters);
+
+                // The same location can be reached through multiple roots, we only want to get its modules once
+                for (ModuleLoader.ClassEntry entry : entries) {
+                    if (!loaded.contains(entry)) {
+                        pending.add(entry);
+                    }
+                }
+
+                if (!loadReady(pending, loaded, modules)) {
+                    return modules;
+                }
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            manager.cancelLoad();
+            return modules;
+
+        } finally {
+            cancelled = true;
+            addRoots();
+        }
+
+        if (failure != null) {
+            // Whatever we got so far is incomplete, so the manager must not remember it
+            manager.cancelLoad();
+            throw Throwables.propagate(failure);
+        }
+
+        // Whatever is left either depends on a module we did not find, or is part of a cycle
+        modules.addAll(manager.loadSorted(pending));
+
+        return modules;
+    }
+
+    private void addRoots() {
+        final Collection<URI> found = new LinkedList<>();
+
+        URI root;
+        while ((root = roots.poll()) != null) {
+            found.add(root);
+        }
+
+        manager.addToClassPath(found);
+    }
+
+    private boolean loadReady(Collection<ModuleLoader.ClassEntry> pending, Collection<ModuleLoader.ClassEntry> loaded,
+                              Collection<Module> modules) {
+        boolean loadedAny = true;
+
+        // Loading one module can make others ready as well, so we need to check again until nothing changes
+        while (loadedAny) {
+            loadedAny = false;
+            final Iterator<ModuleLoader.ClassEntry> iterator = pending.iterator();
+
+            while (iterator.hasNext()) {
+                final ModuleLoader.ClassEntry classEntry = iterator.next();
+                if (!isReady(classEntry)) {
+                    continue;
+                }
+
+                iterator.remove();
+                loaded.add(classEntry);
+                final Module module = loader.loadModule(manager, classEntry);
+
+                if (module == null) {
+                    LOG.warning("Could not load modules properly, cancelling loading procedure");
+                    manager.cancelLoad();
+                    return false;
+                }
+
+                modules.add(module);
+                loadedAny = true;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isReady(ModuleLoader.ClassEntry classEntry) {
+        for (Injector.Entry dependencyEntry : classEntry.getDependencies()) {
+            if (!isLoaded(classEntry, dependencyEntry.getDependency())) {
+                return false;
+            }
+        }
+
+        for (Class<? extends Module> moduleClass : classEntry.getRequirements()) {
+            if (!isLoaded(classEntry, moduleClass)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private boolean isLoaded(ModuleLoader.ClassEntry classEntry, Class<? extends Module> dependency) {
+        return dependency == null || dependency.equals(classEntry.getImplementation()) ||
+                manager.getRegistry().getModule(dependency) != null;
+    }
+
+    private static void start(Runnable runnable, String name) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+
+    /**
+     * Represents the first stage, which scans one location after another.
+     */
+    private final class Scanner implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                for (URI uri : uris) {
+                    if (cancelled) {
+                        break;
+                    }
+
+                    final Map<URI, Collection<String>> names =
+                            manager.collectClasses(scanner, Collections.singletonList(uri), packageName);
+                    if (!names.isEmpty()) {
+                        roots.addAll(names.keySet());
+                        classNames.add(names);
+                    }
+                }
+
+                // Only persist the scan index once, it contains all locations
+                ClassPathScanner.flushIndex();
+
+            } catch (Throwable e) {
+                failure = e;
+                cancelled = true;
+
+            } finally {
+                classNames.add(NO_MORE_CLASS_NAMES);
+            }
+        }
+
+    }
+
+    /**
+     * Represents the second stage, which loads the classes of each scanned location.
+     */
+    private final class ClassLoading implements Runnable {
+
+        @Override
+        public void run() {
+            try {
+                Map<URI, Collection<String>> names;
+                while ((names = classNames.take()) != NO_MORE_CLASS_NAMES && !cancelled) {
+                    final Collection<Class<? extends Module>> batch = loader.loadCandidates(manager, names);
+                    if (!batch.isEmpty()) {
+                        candidates.add(batch);
+                    }
+                }
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+
+            } catch (Throwable e) {
+                failure = e;
+                cancelled = true;
+
+            } finally {
+                candidates.add(NO_MORE_CANDIDATES);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.set.hash.THashSet;
+import gnu.trove.set.hash.TLinkedHashSet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.TreeSet;
+
+/**
+ * Represents the module index that gets generated at build time by the
+ * {@link net.mountainblade.modular.processor.ModuleIndexProcessor module index processor}.
+ *
+ * <p>The index contains the binary names of all implementations, one per line, along with the packages that have been
+ * compiled while it was generated (as {@code package <name>} lines). If a JAR file or class directory contains the
+ * index, its implementations will be used instead of enumerating and loading the classes of those packages. Classes
+ * in any other package did not go through the processor (e.g. because they got merged into a shaded JAR file later
+ * on), so they still get scanned like they would be without an index.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+public final class ModuleIndex {
+    /** The location of the index inside a JAR file or class directory */
+    public static final String LOCATION = "META-INF/modular/index";
+
+    private static final String HEADER = "# Generated by the modular module index processor, do not edit";
+    private static final String PACKAGE_PREFIX = "package ";
+
+    private final Collection<String> implementations;
+    private final Collection<String> packages;
+
+
+    /**
+     * Creates a new module index.
+     *
+     * @param implementations    The binary names of all implementations
+     * @param packages           The names of all packages the index covers
+     */
+    public ModuleIndex(Collection<String> implementations, Collection<String> packages) {
+        this.implementations = Collections.unmodifiableCollection(new TLinkedHashSet<>(implementations));
+        this.packages = Collections.unmodifiableCollection(new THashSet<>(packages));
+    }
+
+    /**
+     * Gets the binary names of all implementations inside the index.
+     *
+     * @return A collection of class names
+     */
+    public Collection<String> getImplementations() {
+        return implementations;
+    }
+
+    /**
+     * Gets the names of all packages that have been compiled while the index was generated.
+     *
+     * @return A collection of package names
+     */
+    public Collection<String> getPackages() {
+        return packages;
+    }
+
+    /**
+     * Checks whether or not the given class has been compiled while the index was generated, so it would be listed
+     * if it were an implementation.
+     *
+     * @param className    The binary name of the class
+     * @return True if the index covers the class' package
+     */
+    public boolean covers(String className) {
+        final int divider = className.lastIndexOf('.');
+        return packages.contains(divider < 0 ? "" : className.substring(0, divider));
+    }
+
+    /**
+     * Reads the index from the given input.
+     *
+     * @param input    The input stream, will not be closed
+     * @return The index
+     * @throws IOException if the index could not be read
+     */
+    public static ModuleIndex read(InputStream input) throws IOException {
+        final Collection<String> implementations = new TLinkedHashSet<>();
+        final Collection<String> packages = new THashSet<>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            // The line of the default package lost its trailing space when we trimmed it
+            if (line.startsWith(PACKAGE_PREFIX) || line.equals(PACKAGE_PREFIX.trim())) {
+                packages.add(line.substring(PACKAGE_PREFIX.trim().length()).trim());
+                continue;
+            }
+
+            // Earlier versions of the index stored more information about each implementation, separated by tabs
+            final int tab = line.indexOf('\t');
+            implementations.add(tab < 0 ? line : line.substring(0, tab));
+        }
+
+        return new ModuleIndex(implementations, packages);
+    }
+
+    /**
+     * Writes the index to the writer.
+     *
+     * @param writer    The writer to use, will not be closed
+     * @throws IOException if the index could not be written
+     */
+    public void write(Writer writer) throws IOException {
+        writer.write(HEADER);
+        writer.write('\n');
+
+        // Keep the output stable, so unchanged builds produce the exact same file
+        for (String packageName : new TreeSet<>(packages)) {
+            writer.write(PACKAGE_PREFIX);
+            writer.write(packageName);
+            writer.write('\n');
+        }
+
+        for (String implementation : new TreeSet<>(implementations)) {
+            writer.write(implementation);
+            writer.write('\n');
+        }
+
+        writer.flush();
+    }
+
+    @Override
+    public String toString() {
+        return "ModuleIndex{implementations=" + implementations + ", packages=" + packages + '}';
+    }
+
+}
@@ -15,8 +15,6 @@
  */
 package net.mountainblade.modular.impl;
 
-import gnu.trove.map.hash.THashMap;
-import gnu.trove.set.hash.THashSet;
 import gnu.trove.set.hash.TLinkedHashSet;
 import net.mountainblade.modular.Module;
 import net.mountainblade.modular.ModuleManager;
@@ -31,14 +29,22 @@ import org.codehaus.plexus.classworlds.strategy.ParentFirstStrategy;
 import org.codehaus.plexus.classworlds.strategy.SelfFirstStrategy;
 import org.codehaus.plexus.classworlds.strategy.Strategy;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -51,11 +57,16 @@ import java.util.logging.Logger;
 public final class ModuleLoader {
     private static final Logger LOG = Logger.getLogger(ModuleLoader.class.getName());
 
-    /** A map containing all meta data about the indexed classes */
-    private static final Map<Class<?>, ClassEntry> CLASS_CACHE = new THashMap<>();
+    /** The number of classes a single task loads when loading classes in parallel */
+    private static final int CLASSES_PER_TASK = 16;
 
-    /** A set of classes that have been skipped as they contain no information (and should be skipped in the future) */
-    private static final Collection<Class<?>> INVALID_CACHE = new THashSet<>();
+    /** All meta data about the indexed classes, stored along with each class so they can be unloaded together */
+    private static final ClassValue<CacheSlot> CLASS_CACHE = new ClassValue<CacheSlot>() {
+        @Override
+        protected CacheSlot computeValue(Class<?> type) {
+            return new CacheSlot();
+        }
+    };
 
     private final ClassRealm realm;
     private final ModuleRegistry registry;
@@ -78,14 +89,15 @@ public final class ModuleLoader {
         this.injector = injector;
         this.parentLoader = parentLoader;
 
-        ignores = new THashSet<>();
+        ignores = Collections.newSetFromMap(new ConcurrentHashMap<Class<?>, Boolean>());
 
-        // Inherit the parent's loading strategy if set
+        // Inherit the parent's loading strategy if set, strategies are bound to a realm so we need our own instance.
+        // Custom strategies get re-created through their realm constructor, see setLoadingStrategy(Class)
         if (parentLoader == null) {
             setLoadingStrategy(ParentFirstStrategy.class);
 
         } else {
-            setLoadingStrategy(parentLoader.getRealm().getStrategy());
+            setLoadingStrategy(parentLoader.getRealm().getStrategy().getClass());
         }
     }
 
@@ -102,7 +114,12 @@ public final class ModuleLoader {
     /**
      * Sets the loading strategy on the class realm.
      *
+     * Apart from the strategies that come with the class realm and the {@link IndexedStrategy}, the class needs a
+     * public constructor only taking the realm to use. The same applies to the strategies of parent loaders, as their
+     * children create their own instance.
+     *
      * @param strategyClass    The class of the loading strategy to use
+     * @throws IllegalArgumentException if the strategy could not be created
      */
     public void setLoadingStrategy(Class<? extends Strategy> strategyClass) {
         if (ParentFirstStrategy.class.equals(strategyClass)) {
@@ -113,6 +130,18 @@ public final class ModuleLoader {
 
         } else if (OsgiBundleStrategy.class.equals(strategyClass)) {
             setLoadingStrategy(new OsgiBundleStrategy(getRealm()));
+
+        } else if (IndexedStrategy.class.equals(strategyClass)) {
+            setLoadingStrategy(new IndexedStrategy(getRealm()));
+
+        } else {
+            try {
+                setLoadingStrategy(strategyClass.getConstructor(ClassRealm.class).newInstance(getRealm()));
+
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Could not create loading strategy, it needs a public constructor " +
+                        "taking the class realm: " + strategyClass.getName(), e);
+            }
         }
     }
 
@@ -122,21 +151,23 @@ public final class ModuleLoader {
      * @param strategy    The loading strategy to use
      */
     public void setLoadingStrategy(Strategy strategy) {
-        // Whoohooo reflections!
-        for (Field field : realm.getClass().getDeclaredFields()) {
-            if (!Strategy.class.isAssignableFrom(field.getType())) {
-                continue;
-            }
+        // Whoohooo reflections! The field is declared by the class realm, which our realms are extending
+        for (Class<?> type = realm.getClass(); type != null; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (!Strategy.class.isAssignableFrom(field.getType())) {
+                    continue;
+                }
 
-            try {
-                field.setAccessible(true);
-                field.set(realm, strategy);
+                try {
+                    field.setAccessible(true);
+                    field.set(realm, strategy);
 
-            } catch (IllegalAccessException e) {
-                LOG.log(Level.WARNING, "Could not set class realm loading strategy (using reflection)", e);
-            }
+                } catch (IllegalAccessException e) {
+                    LOG.log(Level.WARNING, "Could not set class realm loading strategy (using reflection)", e);
+                }
 
-            return;
+                return;
+            }
         }
     }
 
@@ -150,40 +181,49 @@ public final class ModuleLoader {
         return ignores.add(ignore);
     }
 
-    @SuppressWarnings("unchecked")
-    Collection<ClassEntry> filter(BaseModuleManager manager, Map<URI, Collection<String>> classNames,
-                                  Collection<String> list) {
+    Collection<ClassEntry> filter(BaseModuleManager manager, Map<URI, Collection<String>> classNames) {
+        final Collection<Class<? extends Module>> candidates = loadCandidates(manager, classNames);
+        return getClassEntries(candidates, candidates);
+    }
+
+    Collection<Class<? extends Module>> loadCandidates(BaseModuleManager manager,
+                                                       Map<URI, Collection<String>> classNames) {
+        int count = 0;
+        for (Collection<String> names : classNames.values()) {
+            count += names.size();
+        }
+
+        final String[] names = new String[count];
+        int index = 0;
+        for (Collection<String> locationNames : classNames.values()) {
+            for (String className : locationNames) {
+                names[index++] = className;
+            }
+        }
+
+        // Load all classes first, the realm is parallel capable so it only locks per class name
+        final Class<? extends Module>[] classes = newClassArray(count);
+        if (BaseModuleManager.parallelClassLoadingEnabled() && count > CLASSES_PER_TASK) {
+            ClassPathScanner.getPool().invoke(new LoadTask(names, classes, 0, count));
+
+        } else {
+            for (int i = 0; i < count; i++) {
+                classes[i] = loadCandidate(names[i]);
+            }
+        }
+
+        // Then walk over each location in order to build the list of potential modules
         final Collection<Class<? extends Module>> candidates = new TLinkedHashSet<>();
-        final Collection<ClassEntry> moduleClasses = new LinkedList<>();
+        index = 0;
 
-        // Walk over each location first, then build the list of potential modules
         for (Map.Entry<URI, Collection<String>> entry : classNames.entrySet()) {
             boolean hasValidModule = false;
 
-            for (String className : entry.getValue()) {
-                if (!list.contains(className)) {
-                    continue;
-                }
-
-                try {
-                    final Class<?> aClass = realm.loadClass(className);
-
-                    // We can safely ignore any interfaces, since we only want to get implementations
-                    if (isValidModuleClass(aClass)) {
-                        hasValidModule = true;
-                        candidates.add((Class<? extends Module>) aClass);
-                    }
-
-                } catch (ClassNotFoundException e1) {
-                    LOG.log(Level.WARNING, "Could not load class: " + className, e1);
-
-                } catch (NoClassDefFoundError e) {
-                    if (!BaseModuleManager.thoroughSearchEnabled() && !BaseModuleManager.includedFullClassPath) {
-                        LOG.log(Level.INFO, "Could not load class that was available at compile time for: " + className +
-                                "! This often seems to be a problem with shading, please check the classes / build script", e);
-                    }
-                } catch (SecurityException e2) {
-                    LOG.log(Level.WARNING, "Could not load class due to security exception: " + className, e2);
+            for (int i = entry.getValue().size(); i > 0; i--) {
+                final Class<? extends Module> candidate = classes[index++];
+                if (candidate != null) {
+                    hasValidModule = true;
+                    candidates.add(candidate);
                 }
             }
 
@@ -193,10 +233,56 @@ public final class ModuleLoader {
             }
         }
 
+        return candidates;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends Module>[] newClassArray(int length) {
+        return (Class<? extends Module>[]) new Class<?>[length];
+    }
+
+    @SuppressWarnings("unchecked")
+    private Class<? extends Module> loadCandidate(String className) {
+        // Don't even bother defining classes that cannot be implementations
+        if (!mightBeImplementation(className)) {
+            return null;
+        }
+
+        try {
+            final Class<?> aClass = realm.loadClass(className);
+
+            // We can safely ignore any interfaces, since we only want to get implementations
+            if (isValidModuleClass(aClass)) {
+                return (Class<? extends Module>) aClass;
+            }
+
+        } catch (ClassNotFoundException e1) {
+            LOG.log(Level.WARNING, "Could not load class: " + className, e1);
+
+        } catch (NoClassDefFoundError e) {
+            if (!BaseModuleManager.thoroughSearchEnabled() && !BaseModuleManager.includedFullClassPath) {
+                LOG.log(Level.INFO, "Could not load class that was available at compile time for: " + className +
+                        "! This often seems to be a problem with shading, please check the classes / build script", e);
+            }
+        } catch (LinkageError e) {
+            // Broken or incompatible class files should not stop the others from being loaded
+            LOG.log(Level.WARNING, "Could not link class: " + className, e);
+
+        } catch (SecurityException e2) {
+            LOG.log(Level.WARNING, "Could not load class due to security exception: " + className, e2);
+        }
+
+        return null;
+    }
+
+    Collection<ClassEntry> getClassEntries(Collection<Class<? extends Module>> candidates,
+                                           Collection<Class<? extends Module>> others) {
+        final Collection<ClassEntry> moduleClasses = new LinkedList<>();
+
         // Go through each candidate to search if we got one that got overwritten by a subclass, that's the sole purpose
         // of all this ordering and looping - to detect if an implementation became obsolete by a sub-implementation
         for (Class<? extends Module> candidate : candidates) {
-            if (candidateIsObsolete(candidate, candidates)) {
+            if (candidateIsObsolete(candidate, others)) {
                 continue;
             }
 
@@ -210,11 +296,27 @@ public final class ModuleLoader {
         return moduleClasses;
     }
 
+    private boolean mightBeImplementation(String className) {
+        final InputStream input = realm.getResourceAsStream(className.replace('.', '/') + ".class");
+        if (input == null) {
+            // Let the realm decide what to do with it
+            return true;
+        }
+
+        try (InputStream classFile = input) {
+            return ClassFile.read(classFile).isImplementation();
+
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.FINE, "Could not pre-screen class file, loading it instead: " + className, e);
+            return true;
+        }
+    }
+
     boolean isValidModuleClass(Class<?> aClass) {
         return !aClass.isInterface() && !Module.class.equals(aClass) && Module.class.isAssignableFrom(aClass);
     }
 
-    private boolean candidateIsObsolete(Class<? extends Module> candidate, Collection<Class<? extends Module>> others) {
+    boolean candidateIsObsolete(Class<? extends Module> candidate, Collection<Class<? extends Module>> others) {
         for (Class<? extends Module> other : others) {
             if (other.getSuperclass() == candidate) {
                 return true;
@@ -314,6 +416,17 @@ public final class ModuleLoader {
         registry.addModule(classEntry.getModule(), moduleEntry, false);
     }
 
+    /**
+     * Gets the class entry of the given implementation or module class, if it has already been created.
+     * Unlike {@link #getClassEntry(Class)} this never marks the class as invalid.
+     *
+     * @param aClass    The implementation or module class
+     * @return The class entry or null
+     */
+    ClassEntry getKnownClassEntry(Class<? extends Module> aClass) {
+        return CLASS_CACHE.get(aClass).getEntry();
+    }
+
     /**
      * Fetches the class entry for the given module implementation class.
      * If no class entry previously existed this will create the entry.
@@ -327,25 +440,30 @@ public final class ModuleLoader {
     public ClassEntry getClassEntry(Class<? extends Module> implClass) {
         // Early checking for null, against module, and if we already checked and saw that it's invalid
         if (implClass == null || Module.class.equals(implClass) || Implementation.Default.class.equals(implClass) ||
-                Inject.Current.class.equals(implClass) || INVALID_CACHE.contains(implClass)) {
+                Inject.Current.class.equals(implClass)) {
+            return null;
+        }
+
+        final CacheSlot slot = CLASS_CACHE.get(implClass);
+        if (slot.invalid) {
             return null;
         }
 
         // Check lookup first
-        ClassEntry classEntry = CLASS_CACHE.get(implClass);
+        ClassEntry classEntry = slot.getEntry();
 
         // If we found nothing, take the hard route
         if (classEntry == null) {
             // We do not allow interface or annotation modules - that would not work and is thus just ... silly
             if (implClass.isInterface() || implClass.isAnnotation()) {
-                INVALID_CACHE.add(implClass);
+                slot.invalid = true;
                 return null;
             }
 
             // Return null for classes that don't have the annotation
             final Implementation implementation = implClass.getAnnotation(Implementation.class);
             if (implementation == null) {
-                INVALID_CACHE.add(implClass);
+                slot.invalid = true;
                 return null;
             }
 
@@ -362,7 +480,7 @@ public final class ModuleLoader {
                 module = getModuleClassRecursively(implClass);
 
                 if (module == null) {
-                    INVALID_CACHE.add(implClass);
+                    slot.invalid = true;
                     return null;
                 }
             }
@@ -373,10 +491,14 @@ public final class ModuleLoader {
 
             // Get dependencies via the injector, create new class entry and add to cache so we don't need to this again
             classEntry = new ClassEntry(module, implClass, implementation, injector.discover(implClass), requirements);
-            CLASS_CACHE.put(implClass, classEntry);
+
+            // Another thread might have been faster, in that case we use its entry so there is only one per class
+            if (!slot.entry.compareAndSet(null, classEntry)) {
+                return slot.entry.get();
+            }
 
             // Also add the module, so we can get our dependencies right
-            CLASS_CACHE.put(module, classEntry);
+            CLASS_CACHE.get(module).setImplementation(classEntry);
         }
 
         return classEntry;
@@ -530,4 +652,71 @@ public final class ModuleLoader {
 
     }
 
+    /**
+     * Represents everything we know about a single class. As it is stored along with the class, it does not keep the
+     * class (or its class loader) from being unloaded.
+     */
+    private static final class CacheSlot {
+        /** The entry of the class itself, if it is a valid implementation */
+        private final AtomicReference<ClassEntry> entry = new AtomicReference<>();
+
+        /** The entry of the last implementation of the module, which is kept alive by the implementation's slot */
+        private volatile Reference<ClassEntry> implementation;
+
+        /** Whether or not the class contains no information and should be skipped in the future */
+        private volatile boolean invalid;
+
+
+        private ClassEntry getEntry() {
+            final ClassEntry classEntry = entry.get();
+            if (classEntry != null) {
+                return classEntry;
+            }
+
+            final Reference<ClassEntry> reference = implementation;
+            return reference != null ? reference.get() : null;
+        }
+
+        private void setImplementation(ClassEntry classEntry) {
+            // The implementation might live in another realm, so we must not keep it from being unloaded
+            implementation = new WeakReference<>(classEntry);
+            invalid = false;
+        }
+
+    }
+
+
+    /**
+     * Represents a task that loads a range of classes, splitting it up if there are too many.
+     */
+    private final class LoadTask extends RecursiveAction {
+        private final String[] names;
+        private final Class<? extends Module>[] classes;
+        private final int from;
+        private final int to;
+
+
+        private LoadTask(String[] names, Class<? extends Module>[] classes, int from, int to) {
+            this.names = names;
+            this.classes = classes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= CLASSES_PER_TASK) {
+                for (int i = from; i < to; i++) {
+                    classes[i] = loadCandidate(names[i]);
+                }
+
+                return;
+            }
+
+            final int middle = (from + to) >>> 1;
+            invokeAll(new LoadTask(names, classes, from, middle), new LoadTask(names, classes, middle, to));
+        }
+
+    }
+
 }
@@ -0,0 +1,311 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.codehaus.plexus.classworlds.ClassWorld;
+import org.codehaus.plexus.classworlds.realm.ClassRealm;
+import org.codehaus.plexus.classworlds.realm.NoSuchRealmException;
+import org.codehaus.plexus.classworlds.strategy.Strategy;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Represents the class realm modules get loaded in, which remembers the names of classes it could not find.
+ *
+ * <p>Looking up a class that does not exist is expensive: Every realm of a hierarchy asks its imports, its parent and
+ * finally its own URLs, creating an exception on every level. As a module realm can only find new classes once a URL
+ * has been added to it (or to another module realm it delegates to), failed lookups are cached until the next URL
+ * gets added to any module realm, or an import or parent of one gets changed. Only module realms are tracked that
+ * way: A realm that delegates to a parent realm or an import of any other kind does not cache its misses at all,
+ * and the base class loader (usually the application class loader) is assumed not to change.
+ * Realms are parallel capable, so they lock per class name instead of as a whole.</p>
+ *
+ * <p>The realm also keeps track of the packages inside its locations, which the {@link IndexedStrategy} uses to
+ * load classes straight from the realm that contains them.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class ModuleRealm extends ClassRealm {
+    /** The maximum number of failed lookups to remember per realm */
+    private static final int MAX_MISSES = 10000;
+
+    /** Changes whenever a URL gets added to any module realm, so lookups could succeed afterwards */
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    /** The names of the classes we could not find, along with the generation they have been looked up in */
+    private final Cache<String, Long> misses = CacheBuilder.newBuilder().maximumSize(MAX_MISSES).build();
+
+    /** The packages of the classes inside our own locations, as far as we know them */
+    private final Collection<String> packages = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** The packages inside our locations the base class loader can see as well, so we don't index them */
+    private final Collection<String> shadowed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** Whether or not all of our imports are module realms, so their changes bump the generation */
+    private volatile boolean importsTracked = true;
+
+
+    /**
+     * Creates a new module realm.
+     *
+     * @param world              The world of the realm, the realm will not be registered in there
+     * @param id                 The ID of the realm
+     * @param baseClassLoader    The base class loader, can be null if the realm gets a parent realm
+     */
+    ModuleRealm(ClassWorld world, String id, ClassLoader baseClassLoader) {
+        super(world, id, baseClassLoader);
+    }
+
+    @Override
+    public void addURL(URL url) {
+        GENERATION.incrementAndGet();
+        super.addURL(url);
+    }
+
+    @Override
+    public void importFrom(String realmId, String packageName) throws NoSuchRealmException {
+        super.importFrom(realmId, packageName);
+        imported(getWorld().getRealm(realmId));
+    }
+
+    @Override
+    public void importFrom(ClassLoader classLoader, String packageName) {
+        super.importFrom(classLoader, packageName);
+        imported(classLoader);
+    }
+
+    @Override
+    public void importFromParent(String packageName) {
+        super.importFromParent(packageName);
+        GENERATION.incrementAndGet();
+    }
+
+    @Override
+    public void setParentRealm(ClassRealm realm) {
+        super.setParentRealm(realm);
+        GENERATION.incrementAndGet();
+    }
+
+    @Override
+    public void setParentClassLoader(ClassLoader parentClassLoader) {
+        super.setParentClassLoader(parentClassLoader);
+        GENERATION.incrementAndGet();
+    }
+
+    private void imported(ClassLoader classLoader) {
+        if (!(classLoader instanceof ModuleRealm)) {
+            importsTracked = false;
+        }
+
+        GENERATION.incrementAndGet();
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        final long generation = GENERATION.get();
+        if (isMissing(name, generation)) {
+            throw new MissingClassException(name);
+        }
+
+        // Classes of known packages don't need to be looked for anywhere else
+        final Strategy strategy = getStrategy();
+        if (strategy instanceof IndexedStrategy) {
+            final Class<?> aClass = ((IndexedStrategy) strategy).loadIndexedClass(name);
+            if (aClass != null) {
+                return aClass;
+            }
+        }
+
+        try {
+            return super.loadClass(name, resolve);
+
+        } catch (ClassNotFoundException e) {
+            remember(name, generation);
+            throw e;
+        }
+    }
+
+    @Override
+    public URL getResource(String name) {
+        // Same as with classes, the class loader would otherwise ask the base class loader first
+        final Strategy strategy = getStrategy();
+        if (strategy instanceof IndexedStrategy) {
+            final URL url = ((IndexedStrategy) strategy).loadIndexedResource(name.startsWith("/") ?
+                    name.substring(1) : name);
+
+            if (url != null) {
+                return url;
+            }
+        }
+
+        return super.getResource(name);
+    }
+
+    /**
+     * Adds the packages of the given classes, which have to be inside the locations of this realm, to our index.
+     * Packages the base class loader of the hierarchy can already see are left out, so their classes keep being
+     * loaded from there instead of getting defined a second time.
+     *
+     * @param classNames    The binary names of the classes
+     */
+    void index(Collection<String> classNames) {
+        final ClassLoader base = getBaseClassLoader();
+
+        for (String className : classNames) {
+            final int index = className.lastIndexOf('.');
+            final String packageName = index < 0 ? "" : className.substring(0, index);
+
+            if (packages.contains(packageName) || shadowed.contains(packageName)) {
+                continue;
+            }
+
+            // One class per package is enough, packages are not supposed to be split across class loaders
+            if (base != null && base.getResource(className.replace('.', '/') + ".class") != null) {
+                shadowed.add(packageName);
+
+            } else {
+                packages.add(packageName);
+            }
+        }
+    }
+
+    private ClassLoader getBaseClassLoader() {
+        ClassRealm topmost = this;
+        while (topmost.getParentRealm() != null) {
+            topmost = topmost.getParentRealm();
+        }
+
+        return topmost.getParent();
+    }
+
+    /**
+     * Checks whether or not the locations of this realm are known to contain classes of the given package.
+     *
+     * @param packageName    The name of the package
+     * @return True if the package is inside this realm
+     */
+    boolean containsPackage(String packageName) {
+        return packages.contains(packageName);
+    }
+
+    /**
+     * Disposes this realm: All of its locations get closed and everything we remember about them is discarded.
+     * Classes that have already been loaded stay usable, but no new ones can be loaded by this realm afterwards.
+     *
+     * @throws IOException if any of the locations could not be closed
+     */
+    void dispose() throws IOException {
+        packages.clear();
+        shadowed.clear();
+        misses.invalidateAll();
+
+        // Nested and in-memory archives would otherwise be kept alive by the handler forever
+        for (URL url : getURLs()) {
+            NestedJarHandler.release(url, this);
+        }
+
+        close();
+    }
+
+    /**
+     * Checks whether or not the given class can be found by this realm, without trying to load it.
+     *
+     * @param name    The binary name of the class
+     * @return True if the class file could be found
+     */
+    boolean hasClass(String name) {
+        final long generation = GENERATION.get();
+        if (isMissing(name, generation)) {
+            return false;
+        }
+
+        if (getResource(name.replace('.', '/') + ".class") != null) {
+            return true;
+        }
+
+        remember(name, generation);
+        return false;
+    }
+
+    /**
+     * Checks whether or not the given class has not been found since the last URL has been added.
+     *
+     * @param name    The binary name of the class
+     * @return True if a lookup would fail
+     */
+    boolean isKnownMissing(String name) {
+        return isMissing(name, GENERATION.get());
+    }
+
+    private void remember(String name, long generation) {
+        if (isTracked()) {
+            misses.put(name, generation);
+        }
+    }
+
+    /**
+     * Checks whether or not we get notified about every change of the realms we delegate to, which is the case if
+     * they are module realms only. Otherwise a miss might turn into a hit without the generation being changed.
+     *
+     * @return True if misses can be cached
+     */
+    private boolean isTracked() {
+        final ClassRealm parent = getParentRealm();
+        if (!importsTracked) {
+            return false;
+        }
+
+        return parent == null || parent instanceof ModuleRealm && ((ModuleRealm) parent).isTracked();
+    }
+
+    private boolean isMissing(String name, long generation) {
+        final Long missed = misses.getIfPresent(name);
+        return missed != null && missed == generation;
+    }
+
+
+    /**
+     * Represents the exception for a class we already know to be missing. As it gets thrown a lot (and the actual
+     * lookup already failed before) it does not fill in its stack trace.
+     */
+    private static final class MissingClassException extends ClassNotFoundException {
+        private static final long serialVersionUID = 1L;
+
+
+        private MissingClassException(String name) {
+            super(name);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+
+    }
+
+}
@@ -0,0 +1,356 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import gnu.trove.map.hash.THashMap;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Represents the URL handler that serves classes and resources from JAR files nested inside other JAR files.
+ *
+ * <p>A nested JAR file is identified by a URI like {@code jar:file:/app.jar!/BOOT-INF/lib/library.jar}. As the
+ * JDK cannot load classes from those, each nested JAR file gets a URL like {@code modular:/1/} which can be added
+ * to a class realm. All contents are read in place using a {@link ZipArchive}, nothing gets extracted.</p>
+ *
+ * <p>Nested JAR files can always be read again from their outer file, so their archives are only softly referenced.
+ * The URLs of both nested and in-memory archives are released once every realm they have been handed to has been
+ * disposed.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class NestedJarHandler extends URLStreamHandler {
+    /** The protocol of our URLs */
+    static final String PROTOCOL = "modular";
+
+    private static final NestedJarHandler INSTANCE = new NestedJarHandler();
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+    private static final Map<URI, String> IDS = new ConcurrentHashMap<>();
+    private static final Map<String, URI> URIS = new ConcurrentHashMap<>();
+
+    /** The realms using the URL of an archive, by URI (guarded by the lock of {@link #IDS}) */
+    private static final Map<URI, Set<ClassLoader>> USERS = new THashMap<>();
+
+    /** The archives that only live in memory, by URI */
+    private static final Map<URI, ZipArchive> REGISTERED = new ConcurrentHashMap<>();
+
+    /** The nested JAR files we already opened, by nested URI */
+    private static final Cache<URI, ZipArchive> ARCHIVES = CacheBuilder.newBuilder().softValues().build();
+
+
+    private NestedJarHandler() {
+        // Private constructor as we only need one instance
+    }
+
+    /**
+     * Checks whether or not the given URI points to a JAR file inside another JAR file.
+     *
+     * @param uri    The URI to check
+     * @return True if the URI denotes a nested JAR file
+     */
+    static boolean isNested(URI uri) {
+        if (!"jar".equalsIgnoreCase(uri.getScheme())) {
+            return false;
+        }
+
+        final String path = uri.getSchemeSpecificPart();
+        final int divider = path.indexOf("!/");
+
+        return divider >= 0 && path.endsWith(".jar");
+    }
+
+    /**
+     * Checks whether or not the given URI has to be served by this handler, as the JDK cannot read it on its own.
+     *
+     * @param uri    The URI to check
+     * @return True if the URI denotes a nested JAR file or an archive in memory
+     */
+    static boolean isServed(URI uri) {
+        return isNested(uri) || PROTOCOL.equals(uri.getScheme());
+    }
+
+    /**
+     * Creates the URI of a nested JAR file.
+     *
+     * @param outer    The outer JAR file
+     * @param entry    The name of the nested JAR file's entry
+     * @return The nested URI
+     */
+    static URI toUri(File outer, String entry) {
+        try {
+            return new URI("jar", outer.toURI() + "!/" + entry, null);
+
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException("Invalid nested JAR entry: " + entry, e);
+        }
+    }
+
+    /**
+     * Gets the URL that can be used to load classes from the given nested JAR file.
+     *
+     * @param uri    The nested URI
+     * @return A URL using our handler
+     * @throws MalformedURLException if the URL could not be created
+     */
+    static URL toUrl(URI uri) throws MalformedURLException {
+        return toUrl(uri, null);
+    }
+
+    /**
+     * Gets the URL that can be used to load classes from the given nested JAR file, on behalf of the given realm.
+     * The URL stays valid until the realm (along with all other realms using it) releases it.
+     *
+     * @param uri      The nested URI
+     * @param realm    The realm the URL is going to be added to, can be null if the URL should never be released
+     * @return A URL using our handler
+     * @throws MalformedURLException if the URL could not be created
+     * @see #release(URL, ClassLoader)
+     */
+    static URL toUrl(URI uri, ClassLoader realm) throws MalformedURLException {
+        final String id;
+
+        synchronized (IDS) {
+            String known = IDS.get(uri);
+            if (known == null) {
+                known = String.valueOf(NEXT_ID.incrementAndGet());
+                URIS.put(known, uri);
+                IDS.put(uri, known);
+            }
+
+            if (realm != null) {
+                Set<ClassLoader> users = USERS.get(uri);
+                if (users == null) {
+                    users = Collections.newSetFromMap(new WeakHashMap<ClassLoader, Boolean>());
+                    USERS.put(uri, users);
+                }
+
+                users.add(realm);
+            }
+
+            id = known;
+        }
+
+        return new URL(PROTOCOL, "", -1, '/' + id + '/', INSTANCE);
+    }
+
+    /**
+     * Registers an archive that only lives in memory, so its contents can be loaded like the ones of a nested JAR file.
+     *
+     * @param archive    The archive to register
+     * @return The URI of the archive, to be used with {@link #toUrl(URI)} and {@link #open(URI)}
+     */
+    static URI register(ZipArchive archive) {
+        final URI uri = URI.create(PROTOCOL + ":/memory/" + NEXT_ID.incrementAndGet());
+        REGISTERED.put(uri, archive);
+
+        return uri;
+    }
+
+    /**
+     * Forgets the given archive, so it can be garbage collected along with its contents.
+     *
+     * @param uri    The URI of the archive
+     */
+    static void unregister(URI uri) {
+        synchronized (IDS) {
+            REGISTERED.remove(uri);
+            ARCHIVES.invalidate(uri);
+            USERS.remove(uri);
+
+            final String id = IDS.remove(uri);
+            if (id != null) {
+                URIS.remove(id);
+            }
+        }
+    }
+
+    /**
+     * Releases the given URL on behalf of a realm that is no longer in use. Once no other realm uses it anymore,
+     * the archive it points to gets forgotten, so it can be garbage collected along with its contents.
+     *
+     * @param url      The URL of the archive
+     * @param realm    The realm that has been using the URL
+     */
+    static void release(URL url, ClassLoader realm) {
+        if (!PROTOCOL.equals(url.getProtocol())) {
+            return;
+        }
+
+        final String path = url.getPath();
+        final int divider = path.indexOf('/', 1);
+        if (divider < 0) {
+            return;
+        }
+
+        synchronized (IDS) {
+            final URI uri = URIS.get(path.substring(1, divider));
+            final Set<ClassLoader> users = uri == null ? null : USERS.get(uri);
+
+            // URLs that have been handed out without a realm are never released
+            if (users == null || !users.remove(realm) || !users.isEmpty()) {
+                return;
+            }
+
+            unregister(uri);
+        }
+    }
+
+    /**
+     * Opens the given nested JAR file.
+     *
+     * @param uri    The nested URI
+     * @return The archive of the nested JAR file
+     * @throws IOException if either of the JAR files could not be read
+     */
+    static ZipArchive open(URI uri) throws IOException {
+        ZipArchive archive = REGISTERED.get(uri);
+        if (archive == null) {
+            archive = ARCHIVES.getIfPresent(uri);
+        }
+
+        if (archive != null) {
+            return archive;
+        }
+
+        // Archives in memory can't be read again once they have been unregistered
+        if (!isNested(uri)) {
+            throw new FileNotFoundException("Unknown archive: " + uri);
+        }
+
+        final String path = uri.getSchemeSpecificPart();
+        final int divider = path.indexOf("!/");
+        final String entryName = path.substring(divider + 2);
+
+        final ZipArchive outer = ZipArchive.open(ClassPathScanner.getJarFile(uri));
+        final ZipArchive.Entry entry = outer.getEntry(entryName);
+        if (entry == null) {
+            throw new FileNotFoundException("Could not find nested JAR file: " + uri);
+        }
+
+        archive = new ZipArchive(outer.getData(entry));
+        ARCHIVES.put(uri, archive);
+
+        return archive;
+    }
+
+    /**
+     * Forgets all opened nested JAR files of the given outer JAR file, so they will be read again.
+     *
+     * @param outer    The URI of the outer JAR file
+     */
+    static void invalidate(URI outer) {
+        final String prefix = "jar:" + outer + "!/";
+
+        for (URI uri : ARCHIVES.asMap().keySet()) {
+            if (uri.toString().startsWith(prefix)) {
+                ARCHIVES.invalidate(uri);
+            }
+        }
+    }
+
+    @Override
+    protected URLConnection openConnection(URL url) throws IOException {
+        return new Connection(url);
+    }
+
+
+    /**
+     * Represents a connection to an entry inside a nested JAR file.
+     */
+    private static final class Connection extends URLConnection {
+        private ZipArchive archive;
+        private ZipArchive.Entry entry;
+
+
+        private Connection(URL url) {
+            super(url);
+        }
+
+        @Override
+        public void connect() throws IOException {
+            if (connected) {
+                return;
+            }
+
+            // The path looks like "/<id>/<entry>", we need to decode it since the class loader encodes the names
+            final String path;
+            try {
+                path = url.toURI().getPath();
+
+            } catch (URISyntaxException e) {
+                throw new MalformedURLException("Invalid nested JAR URL: " + url);
+            }
+
+            final int divider = path.indexOf('/', 1);
+            final URI uri = divider < 0 ? null : URIS.get(path.substring(1, divider));
+            if (uri == null) {
+                throw new FileNotFoundException("Unknown nested JAR file: " + url);
+            }
+
+            archive = open(uri);
+            entry = archive.getEntry(path.substring(divider + 1));
+            if (entry == null) {
+                throw new FileNotFoundException("Could not find " + path.substring(divider + 1) + " in " + uri);
+            }
+
+            connected = true;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            connect();
+            return archive.getInputStream(entry);
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            try {
+                connect();
+                return entry.getSize();
+
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public int getContentLength() {
+            final long length = getContentLengthLong();
+            return length > Integer.MAX_VALUE ? -1 : (int) length;
+        }
+
+    }
+
+}
@@ -0,0 +1,377 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import com.google.common.base.Preconditions;
+import gnu.trove.set.hash.THashSet;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Pattern;
+
+/**
+ * Represents a list of path patterns that should be ignored while looking for modules.
+ *
+ * <p>Patterns are matched against whole path segments (the names of directories and files), ignoring their case:
+ * {@code demo} matches a directory called "Demo", but not one called "demolition". Within a segment, {@code *}
+ * matches any number of characters and {@code ?} exactly one. Patterns consisting of multiple segments (separated
+ * by slashes) match consecutive segments anywhere in a path, a {@code **} segment stands for any number of
+ * segments in between, e.g. {@code build/**} or {@code src/main/resources}.</p>
+ *
+ * <p>The patterns get compiled into a {@link Matcher}, which is only done again after the list has changed. A blacklist
+ * can have a parent, whose patterns will be matched as well.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+public final class PathBlacklist {
+    /** The maximum number of segments a single pattern can have */
+    private static final int MAX_SEGMENTS = 62;
+
+    private final PathBlacklist parent;
+    private final List<String> patterns;
+
+    private volatile int modifications;
+    private volatile Matcher matcher;
+
+
+    /**
+     * Creates a new, empty blacklist.
+     */
+    public PathBlacklist() {
+        this(null);
+    }
+
+    /**
+     * Creates a new, empty blacklist that also matches the patterns of the given one.
+     *
+     * @param parent    The parent blacklist, can be null
+     */
+    public PathBlacklist(PathBlacklist parent) {
+        this.parent = parent;
+        this.patterns = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Adds the given pattern to the blacklist.
+     *
+     * @param pattern    The pattern to add
+     * @return The blacklist instance to allow method chaining
+     */
+    public PathBlacklist add(String pattern) {
+        Preconditions.checkNotNull(pattern, "Invalid pattern given, should not be null");
+
+        final String normalized = normalize(pattern);
+        Preconditions.checkArgument(!normalized.isEmpty(), "Invalid pattern given, should not be empty");
+        Preconditions.checkArgument(normalized.split("/").length <= MAX_SEGMENTS,
+                "Invalid pattern given, should not have more than %s segments", MAX_SEGMENTS);
+
+        patterns.add(normalized);
+        modifications++;
+
+        return this;
+    }
+
+    /**
+     * Removes the given pattern from the blacklist (but not from its parent).
+     *
+     * @param pattern    The pattern to remove
+     * @return True if the pattern has been removed, false if it was not on the list
+     */
+    public boolean remove(String pattern) {
+        final boolean removed = patterns.remove(normalize(pattern));
+        if (removed) {
+            modifications++;
+        }
+
+        return removed;
+    }
+
+    /**
+     * Gets the patterns of this blacklist, without the ones of its parent.
+     *
+     * @return An unmodifiable collection of patterns
+     */
+    public Collection<String> getPatterns() {
+        return Collections.unmodifiableCollection(patterns);
+    }
+
+    /**
+     * Checks whether or not any segment of the given path (or URI) is blacklisted.
+     *
+     * @param path    The path, using slashes or backslashes as separators
+     * @return True if the path is blacklisted
+     */
+    public boolean isBlacklisted(String path) {
+        return getMatcher().matches(path);
+    }
+
+    /**
+     * Gets the compiled form of all patterns, including the ones of the parent.
+     *
+     * @return The matcher
+     */
+    Matcher getMatcher() {
+        final int version = getVersion();
+
+        Matcher current = matcher;
+        if (current == null || current.version != version) {
+            final Collection<String> all = new LinkedList<>();
+            for (PathBlacklist blacklist = this; blacklist != null; blacklist = blacklist.parent) {
+                all.addAll(blacklist.patterns);
+            }
+
+            current = new Matcher(all, version);
+            matcher = current;
+        }
+
+        return current;
+    }
+
+    private int getVersion() {
+        return parent == null ? modifications : modifications * 31 + parent.getVersion();
+    }
+
+    private static String normalize(String pattern) {
+        String normalized = pattern.trim().replace('\\', '/').toLowerCase();
+
+        while (normalized.startsWith("/")) {
+            normalized = normalized.substring(1);
+        }
+
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+
+        return normalized;
+    }
+
+    private static Pattern compileGlob(String glob) {
+        final StringBuilder regex = new StringBuilder();
+        final StringBuilder literal = new StringBuilder();
+
+        for (char character : glob.toCharArray()) {
+            if (character != '*' && character != '?') {
+                literal.append(character);
+                continue;
+            }
+
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+                literal.setLength(0);
+            }
+
+            regex.append(character == '*' ? ".*" : ".");
+        }
+
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private static boolean isGlob(String segment) {
+        return segment.indexOf('*') >= 0 || segment.indexOf('?') >= 0;
+    }
+
+
+    /**
+     * Represents the compiled (immutable) form of a blacklist.
+     *
+     * <p>Single-segment patterns without wildcards end up in a hash set, so checking a name against them takes
+     * constant time. Patterns with multiple segments are matched step by step while descending into a directory tree:
+     * The {@link State} of a directory holds how far each of them has already been matched, so the path never needs
+     * to be looked at again.</p>
+     */
+    static final class Matcher {
+        private final int version;
+        private final Collection<String> names;
+        private final Pattern[] globs;
+        private final Pattern[][] paths;
+
+        private final State start;
+
+
+        private Matcher(Collection<String> patterns, int version) {
+            this.version = version;
+            this.names = new THashSet<>();
+
+            final List<Pattern> globs = new LinkedList<>();
+            final List<Pattern[]> paths = new LinkedList<>();
+
+            for (String pattern : patterns) {
+                final String[] segments = pattern.split("/");
+
+                if (segments.length == 1) {
+                    if (isGlob(pattern)) {
+                        globs.add(compileGlob(pattern));
+                    } else {
+                        names.add(pattern);
+                    }
+
+                    continue;
+                }
+
+                // A null segment stands for any number of segments
+                final Pattern[] compiled = new Pattern[segments.length];
+                for (int i = 0; i < segments.length; i++) {
+                    compiled[i] = "**".equals(segments[i]) ? null : compileGlob(segments[i]);
+                }
+
+                paths.add(compiled);
+            }
+
+            this.globs = globs.toArray(new Pattern[globs.size()]);
+            this.paths = paths.toArray(new Pattern[paths.size()][]);
+            this.start = new State(new long[this.paths.length]);
+        }
+
+        /**
+         * Gets the state of a path without any segments.
+         *
+         * @return The initial state
+         */
+        State start() {
+            return start;
+        }
+
+        /**
+         * Checks whether or not the given name is blacklisted inside a directory with the given state.
+         *
+         * @param state    The state of the parent directory
+         * @param name     The name of the file or directory
+         * @return True if blacklisted
+         */
+        boolean matches(State state, String name) {
+            final String lowerCase = name.toLowerCase();
+            if (names.contains(lowerCase)) {
+                return true;
+            }
+
+            for (Pattern glob : globs) {
+                if (glob.matcher(lowerCase).matches()) {
+                    return true;
+                }
+            }
+
+            for (int i = 0; i < paths.length; i++) {
+                final Pattern[] path = paths[i];
+                if ((step(path, state.positions[i], lowerCase) & (1L << path.length)) != 0) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * Gets the state of a directory inside a directory with the given state.
+         *
+         * @param state    The state of the parent directory
+         * @param name     The name of the directory, which must not be blacklisted
+         * @return The state of the directory
+         */
+        State enter(State state, String name) {
+            if (paths.length == 0) {
+                return state;
+            }
+
+            final String lowerCase = name.toLowerCase();
+            final long[] positions = new long[paths.length];
+
+            for (int i = 0; i < paths.length; i++) {
+                positions[i] = step(paths[i], state.positions[i], lowerCase);
+            }
+
+            return new State(positions);
+        }
+
+        /**
+         * Checks whether or not any segment of the given path is blacklisted.
+         *
+         * @param path    The path, using slashes or backslashes as separators
+         * @return True if the path is blacklisted
+         */
+        boolean matches(String path) {
+            State state = start;
+
+            for (String segment : path.split("[/\\\\]")) {
+                if (segment.isEmpty()) {
+                    continue;
+                }
+
+                if (matches(state, segment)) {
+                    return true;
+                }
+
+                state = enter(state, segment);
+            }
+
+            return false;
+        }
+
+        private static long step(Pattern[] path, long positions, String name) {
+            // Every segment could be the start of a match, so the first position is always active
+            final long active = expand(path, positions | 1L);
+            long next = 0;
+
+            for (int i = 0; i < path.length; i++) {
+                if ((active & (1L << i)) == 0) {
+                    continue;
+                }
+
+                if (path[i] == null) {
+                    next |= 1L << i;
+
+                } else if (path[i].matcher(name).matches()) {
+                    next |= 1L << (i + 1);
+                }
+            }
+
+            return expand(path, next);
+        }
+
+        private static long expand(Pattern[] path, long positions) {
+            // Any-segment wildcards can also match no segment at all
+            for (int i = 0; i < path.length; i++) {
+                if (path[i] == null && (positions & (1L << i)) != 0) {
+                    positions |= 1L << (i + 1);
+                }
+            }
+
+            return positions;
+        }
+
+    }
+
+    /**
+     * Represents how far the multi-segment patterns have been matched for a single directory.
+     */
+    static final class State {
+        private final long[] positions;
+
+
+        private State(long[] positions) {
+            this.positions = positions;
+        }
+
+    }
+
+}
@@ -0,0 +1,293 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import gnu.trove.map.hash.THashMap;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Represents a persistent index of scanned JAR files, so their contents can be reused across JVM restarts.
+ *
+ * <p>The index file gets read into a single buffer when it is opened. Only the entry headers (URI, size and
+ * modification time) get decoded up front, the class names of an entry are only decoded once the entry has been
+ * requested and is still valid. The file does not get memory-mapped: A mapping can only be released by the garbage
+ * collector, and as long as it is alive, platforms like Windows refuse to replace the file when the index gets
+ * flushed.</p>
+ *
+ * <p>The binary format (big endian) looks like this:</p>
+ * <pre>
+ * int     magic ("MODX")
+ * int     format version
+ * int     number of entries
+ * entry[]
+ *   int      length of the URI, followed by the URI in UTF-8
+ *   long     file size
+ *   long     last modification time
+ *   byte     1 if the class names have been pre-screened, 0 if not
+ *   int      length of the class names, followed by all class names in UTF-8, separated by a line break
+ * </pre>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class ScanIndex {
+    private static final Logger LOG = Logger.getLogger(ScanIndex.class.getName());
+
+    private static final int MAGIC = 0x4D4F4458;
+    private static final int VERSION = 3;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final Map<String, Entry> entries;
+    private ByteBuffer buffer;
+    private boolean dirty;
+
+
+    /**
+     * Creates a new index backed by the given file.
+     * If the file exists it will be read and its entries will be used, otherwise the index starts out empty.
+     *
+     * @param file    The index file
+     */
+    ScanIndex(File file) {
+        this.file = file;
+        this.entries = new THashMap<>();
+
+        load();
+    }
+
+    /**
+     * Gets the stored class names for the given JAR file, if the file did not change since it was indexed and its
+     * listing has been made in the same mode.
+     *
+     * @param uri            The URI of the JAR file
+     * @param jarFile        The actual file on disk
+     * @param preScreened    True if the class names need to be pre-screened
+     * @return A collection of class names or null if there's no (valid) entry
+     */
+    synchronized Collection<String> get(String uri, File jarFile, boolean preScreened) {
+        final Entry entry = entries.get(uri);
+        if (entry == null || entry.preScreened != preScreened || !entry.matches(jarFile)) {
+            return null;
+        }
+
+        final Collection<String> names = new LinkedList<>();
+        final String joined = new String(entry.getNames(buffer), UTF_8);
+        if (!joined.isEmpty()) {
+            names.addAll(Arrays.asList(joined.split("\n")));
+        }
+
+        return names;
+    }
+
+    /**
+     * Stores the given class names for the JAR file.
+     * The index only gets written to disk once {@link #flush()} gets called.
+     *
+     * <p>The size and modification time have to be taken before the JAR file gets read, so the entry does not get
+     * used if the file changed while it was being read.</p>
+     *
+     * @param uri             The URI of the JAR file
+     * @param size            The size of the JAR file before it has been read
+     * @param lastModified    The modification time of the JAR file before it has been read
+     * @param preScreened     True if the class names have been pre-screened
+     * @param names           The class names found inside the JAR
+     */
+    synchronized void put(String uri, long size, long lastModified, boolean preScreened, Collection<String> names) {
+        final StringBuilder builder = new StringBuilder();
+        for (String name : names) {
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+
+            builder.append(name);
+        }
+
+        entries.put(uri, new Entry(size, lastModified, preScreened, builder.toString().getBytes(UTF_8)));
+        dirty = true;
+    }
+
+    /**
+     * Writes the index to disk, if it changed since the last time.
+     *
+     * The index gets written to a unique temporary file first, which then atomically replaces the old one.
+     * That way other processes reading (or writing) the index will never see a half-written file.
+     * Entries of JAR files that have been removed or changed since they were indexed get dropped.
+     */
+    synchronized void flush() {
+        if (!dirty) {
+            return;
+        }
+
+        try {
+            final File parent = file.getAbsoluteFile().getParentFile();
+            if (!parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Could not create directory for scan index: " + parent);
+            }
+
+            final Map<String, Entry> valid = new THashMap<>();
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                if (mapEntry.getValue().matches(ClassPathScanner.getJarFile(URI.create(mapEntry.getKey())))) {
+                    valid.put(mapEntry.getKey(), mapEntry.getValue());
+                }
+            }
+
+            final Path temp = Files.createTempFile(parent.toPath(), file.getName(), ".tmp");
+            try {
+                write(temp, valid);
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            } finally {
+                // Only left over if we could not replace the old index
+                Files.deleteIfExists(temp);
+            }
+
+            dirty = false;
+
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Could not write scan index to " + file, e);
+            return;
+        }
+
+        // Read the new file, so the entries share a single buffer again
+        entries.clear();
+        load();
+    }
+
+    private void write(Path target, Map<String, Entry> valid) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(target)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(valid.size());
+
+            for (Map.Entry<String, Entry> mapEntry : valid.entrySet()) {
+                final Entry entry = mapEntry.getValue();
+                final byte[] uri = mapEntry.getKey().getBytes(UTF_8);
+                final byte[] names = entry.getNames(buffer);
+
+                out.writeInt(uri.length);
+                out.write(uri);
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                out.writeBoolean(entry.preScreened);
+                out.writeInt(names.length);
+                out.write(names);
+            }
+        }
+    }
+
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+
+        try {
+            final ByteBuffer loaded = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+            if (loaded.getInt() != MAGIC || loaded.getInt() != VERSION) {
+                LOG.info("Ignoring scan index in unknown format: " + file);
+                return;
+            }
+
+            final int count = loaded.getInt();
+            for (int i = 0; i < count; i++) {
+                final byte[] uri = new byte[loaded.getInt()];
+                loaded.get(uri);
+
+                final long size = loaded.getLong();
+                final long lastModified = loaded.getLong();
+                final boolean preScreened = loaded.get() != 0;
+                final int length = loaded.getInt();
+
+                entries.put(new String(uri, UTF_8), new Entry(size, lastModified, preScreened, loaded.position(),
+                        length));
+                loaded.position(loaded.position() + length);
+            }
+
+            buffer = loaded;
+
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, "Could not read scan index from " + file + ", will create a new one", e);
+            entries.clear();
+        }
+    }
+
+
+    /**
+     * Represents a single index entry, either pointing into the loaded file or holding freshly scanned names.
+     */
+    private static final class Entry {
+        private final long size;
+        private final long lastModified;
+        private final boolean preScreened;
+        private final int offset;
+        private final int length;
+        private final byte[] names;
+
+
+        private Entry(long size, long lastModified, boolean preScreened, int offset, int length) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.preScreened = preScreened;
+            this.offset = offset;
+            this.length = length;
+            this.names = null;
+        }
+
+        private Entry(long size, long lastModified, boolean preScreened, byte[] names) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.preScreened = preScreened;
+            this.offset = 0;
+            this.length = names.length;
+            this.names = names;
+        }
+
+        private boolean matches(File jarFile) {
+            return jarFile.isFile() && jarFile.length() == size && jarFile.lastModified() == lastModified;
+        }
+
+        private byte[] getNames(ByteBuffer buffer) {
+            if (names != null) {
+                return names;
+            }
+
+            final byte[] bytes = new byte[length];
+            final ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            view.get(bytes);
+
+            return bytes;
+        }
+
+    }
+
+}
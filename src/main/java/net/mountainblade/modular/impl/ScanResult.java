@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Represents the outcome of looking for classes at a few locations, without anything having been loaded yet.
+ *
+ * <p>A scan result is immutable and can therefore be shared between threads and managers: It can be passed to
+ * {@link net.mountainblade.modular.ModuleManager#loadModules(ScanResult, net.mountainblade.modular.Filter...)}
+ * of any number of managers (each with its own filters), none of them will need to scan the locations again.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+public final class ScanResult {
+    private final Map<URI, Collection<String>> classNames;
+    private final ClassPathScanner.Snapshot snapshot;
+
+
+    ScanResult(Map<URI, Collection<String>> classNames, ClassPathScanner.Snapshot snapshot) {
+        final Map<URI, Collection<String>> copy = new LinkedHashMap<>();
+        for (Map.Entry<URI, Collection<String>> entry : classNames.entrySet()) {
+            copy.put(entry.getKey(), Collections.unmodifiableCollection(new ArrayList<>(entry.getValue())));
+        }
+
+        this.classNames = Collections.unmodifiableMap(copy);
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Gets the names of all found classes by the class path root (JAR file or directory) they are located in.
+     *
+     * @return An unmodifiable map of class names
+     */
+    public Map<URI, Collection<String>> getClassNames() {
+        return classNames;
+    }
+
+    /**
+     * Gets all class path roots (JAR files or directories) that contain any of the found classes.
+     *
+     * @return An unmodifiable collection of URIs
+     */
+    public Collection<URI> getRoots() {
+        return classNames.keySet();
+    }
+
+    /**
+     * Checks whether or not the scan did not find any classes.
+     *
+     * @return True if there are no classes
+     */
+    public boolean isEmpty() {
+        return classNames.isEmpty();
+    }
+
+    /**
+     * Checks whether or not the scanned files and directories are still the same, so scanning them again would
+     * yield the same result.
+     *
+     * @return True if nothing changed since the scan
+     */
+    public boolean isUpToDate() {
+        return snapshot.isUpToDate();
+    }
+
+}
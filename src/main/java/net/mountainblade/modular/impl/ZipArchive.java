@@ -0,0 +1,385 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import gnu.trove.map.hash.THashMap;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Represents a read-only zip archive that lives inside a byte buffer.
+ *
+ * <p>Unlike {@link java.util.zip.ZipFile} this works on any buffer, so archives that are stored inside other
+ * archives can be read in place: If the inner archive has been stored without compression, its buffer is just
+ * a slice of the (memory-mapped) outer one. Only the central directory gets parsed up front.
+ * ZIP64 archives are not supported.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+final class ZipArchive {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_SIGNATURE = 0x04034b50;
+    private static final int END_SIZE = 22;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final ByteBuffer buffer;
+    private final Map<String, Entry> entries;
+
+
+    private ZipArchive(Map<String, Entry> entries) {
+        this.buffer = null;
+        this.entries = entries;
+    }
+
+    /**
+     * Creates a new archive by reading the central directory of the given buffer.
+     *
+     * @param buffer    The buffer containing the whole archive between its position and limit
+     * @throws IOException if the buffer does not contain a (supported) zip archive
+     */
+    ZipArchive(ByteBuffer buffer) throws IOException {
+        // The offsets inside the archive are relative to its start, not to the start of the backing buffer
+        this.buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.entries = new THashMap<>();
+
+        final int end = findEnd(this.buffer);
+        final int count = this.buffer.getShort(end + 10) & 0xFFFF;
+
+        // None of the offsets can be trusted, the central directory has to end before the end record does
+        int position = this.buffer.getInt(end + 16);
+        for (int i = 0; i < count; i++) {
+            checkBounds(position, 46, end, "central directory entry");
+            if (this.buffer.getInt(position) != CENTRAL_SIGNATURE) {
+                throw new IOException("Invalid central directory entry at " + position);
+            }
+
+            final int nameLength = this.buffer.getShort(position + 28) & 0xFFFF;
+            final int extraLength = this.buffer.getShort(position + 30) & 0xFFFF;
+            final int commentLength = this.buffer.getShort(position + 32) & 0xFFFF;
+            checkBounds(position, 46 + nameLength + extraLength + commentLength, end, "central directory entry");
+
+            final byte[] name = new byte[nameLength];
+            final ByteBuffer nameBuffer = this.buffer.duplicate();
+            nameBuffer.position(position + 46);
+            nameBuffer.get(name);
+
+            final Entry entry = new Entry(new String(name, UTF_8), this.buffer.getShort(position + 10) & 0xFFFF,
+                    this.buffer.getInt(position + 20) & 0xFFFFFFFFL, this.buffer.getInt(position + 24) & 0xFFFFFFFFL,
+                    this.buffer.getInt(position + 42) & 0xFFFFFFFFL, null);
+            entries.put(entry.getName(), entry);
+
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+    }
+
+    /**
+     * Opens the given file as zip archive by mapping it into memory.
+     *
+     * @param file    The file to open
+     * @return The archive
+     * @throws IOException if the file could not be read or is no (supported) zip archive
+     */
+    static ZipArchive open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return new ZipArchive(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Creates an archive that serves the given files, without them ever being written into an actual zip file.
+     *
+     * @param files    The contents of each file by their entry name, the arrays will not be copied
+     * @return The archive
+     */
+    static ZipArchive of(Map<String, byte[]> files) {
+        final Map<String, Entry> entries = new THashMap<>();
+
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            final byte[] data = file.getValue();
+            entries.put(file.getKey(), new Entry(file.getKey(), STORED, data.length, data.length, -1,
+                    ByteBuffer.wrap(data)));
+        }
+
+        return new ZipArchive(entries);
+    }
+
+    /**
+     * Creates a fingerprint of the given zip file by hashing its central directory. As the directory contains the
+     * name, size and CRC of every single entry, two files with the same fingerprint have the same contents.
+     *
+     * @param file    The zip file
+     * @return The fingerprint of the file
+     * @throws IOException if the file could not be read or is no (supported) zip archive
+     */
+    static HashCode fingerprint(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // Only map the end record and the central directory, the whole file might be too large for a buffer
+            final long size = channel.size();
+            final long tailStart = Math.max(0, size - END_SIZE - 0xFFFF);
+            final ByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, tailStart, size - tailStart)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            final int end = findEnd(tail);
+            final long offset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+            final int directorySize = tail.getInt(end + 12);
+            if (directorySize < 0 || offset + directorySize > tailStart + end) {
+                throw new IOException("Invalid central directory size");
+            }
+
+            final byte[] directory = new byte[directorySize];
+            channel.map(FileChannel.MapMode.READ_ONLY, offset, directorySize).get(directory);
+
+            return Hashing.murmur3_128().newHasher().putLong(size).putBytes(directory).hash();
+        }
+    }
+
+    private static void checkBounds(long start, long length, int limit, String what) throws IOException {
+        if (start < 0 || length < 0 || start + length > limit) {
+            throw new IOException("Invalid " + what + ", it exceeds the archive at " + start);
+        }
+    }
+
+    private static int findEnd(ByteBuffer buffer) throws IOException {
+        // The end record is at the very end, unless the archive has a comment
+        final int stop = Math.max(0, buffer.limit() - END_SIZE - 0xFFFF);
+        int end = buffer.limit() - END_SIZE;
+        while (end >= stop && buffer.getInt(end) != END_SIGNATURE) {
+            end--;
+        }
+
+        if (end < stop) {
+            throw new IOException("Could not find end of central directory");
+        }
+
+        if ((buffer.getShort(end + 10) & 0xFFFF) == 0xFFFF || buffer.getInt(end + 16) == 0xFFFFFFFF) {
+            throw new IOException("ZIP64 archives are not supported");
+        }
+
+        return end;
+    }
+
+    /**
+     * Gets all entries of the archive.
+     *
+     * @return An unmodifiable collection of entries
+     */
+    Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * Gets the entry with the given name.
+     *
+     * @param name    The name of the entry, as stored in the archive
+     * @return The entry or null if there is none with the given name
+     */
+    Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Gets the (uncompressed) contents of the given entry.
+     * Stored entries are returned as a read-only view, compressed ones get inflated onto the heap.
+     *
+     * @param entry    The entry to read
+     * @return A buffer containing the contents
+     * @throws IOException if the entry could not be read
+     */
+    ByteBuffer getData(Entry entry) throws IOException {
+        if (entry.data != null) {
+            return entry.data.asReadOnlyBuffer();
+        }
+
+        checkBounds(entry.offset, 30, buffer.limit(), "local header of " + entry.getName());
+        final int header = (int) entry.offset;
+        if (buffer.getInt(header) != LOCAL_SIGNATURE) {
+            throw new IOException("Invalid local header for entry: " + entry.getName());
+        }
+
+        // The local header can have a different extra field than the central one
+        final int start = header + 30 + (buffer.getShort(header + 26) & 0xFFFF) +
+                (buffer.getShort(header + 28) & 0xFFFF);
+        checkBounds(start, entry.compressedSize, buffer.limit(), "contents of " + entry.getName());
+
+        final ByteBuffer data = buffer.duplicate();
+        data.position(start);
+        data.limit(start + (int) entry.compressedSize);
+
+        switch (entry.method) {
+            case STORED:
+                return data.slice().asReadOnlyBuffer();
+
+            case DEFLATED:
+                return inflate(entry, data);
+
+            default:
+                throw new IOException("Unsupported compression method " + entry.method + " for " + entry.getName());
+        }
+    }
+
+    /**
+     * Opens an input stream for the contents of the given entry.
+     *
+     * @param entry    The entry to read
+     * @return An input stream, it does not need to be closed
+     * @throws IOException if the entry could not be read
+     */
+    InputStream getInputStream(Entry entry) throws IOException {
+        return new BufferInputStream(getData(entry));
+    }
+
+    private static ByteBuffer inflate(Entry entry, ByteBuffer data) throws IOException {
+        if (entry.size > Integer.MAX_VALUE) {
+            throw new IOException("Entry is too large to be inflated: " + entry.getName());
+        }
+
+        final byte[] input = new byte[data.remaining()];
+        data.get(input);
+
+        final byte[] output = new byte[(int) entry.size];
+        final Inflater inflater = new Inflater(true);
+
+        try {
+            inflater.setInput(input);
+
+            int length = 0;
+            while (length < output.length && !inflater.finished()) {
+                final int inflated = inflater.inflate(output, length, output.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+
+                length += inflated;
+            }
+
+            if (length != output.length) {
+                throw new IOException("Unexpected end of compressed data for entry: " + entry.getName());
+            }
+
+        } catch (DataFormatException e) {
+            throw new IOException("Invalid compressed data for entry: " + entry.getName(), e);
+
+        } finally {
+            inflater.end();
+        }
+
+        return ByteBuffer.wrap(output).asReadOnlyBuffer();
+    }
+
+
+    /**
+     * Represents a single entry inside the archive (DTO).
+     */
+    static final class Entry {
+        private final String name;
+        private final int method;
+        private final long compressedSize;
+        private final long size;
+        private final long offset;
+        private final ByteBuffer data;
+
+
+        private Entry(String name, int method, long compressedSize, long size, long offset, ByteBuffer data) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+            this.data = data;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+    }
+
+    /**
+     * Represents an input stream reading from a byte buffer.
+     */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+
+        private BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            final int read = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, read);
+
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return buffer.remaining();
+        }
+
+    }
+
+}
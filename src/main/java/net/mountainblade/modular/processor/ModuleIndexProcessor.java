@@ -0,0 +1,240 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.processor;
+
+import gnu.trove.set.hash.THashSet;
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.annotations.Implementation;
+import net.mountainblade.modular.impl.ModuleIndex;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Represents an annotation processor that records all {@link Implementation implementations} in the
+ * {@link ModuleIndex module index}, so the module manager does not need to enumerate and load every class
+ * on the class path at runtime.
+ *
+ * <p>The processor gets registered as a service, so it runs automatically when modular is on the compile
+ * class path. Besides the implementations it also records the packages it has seen, so classes that never went
+ * through the processor still get scanned at runtime.</p>
+ *
+ * @author spaceemotion
+ * @version 1.0
+ */
+@SupportedAnnotationTypes("*")
+public class ModuleIndexProcessor extends AbstractProcessor {
+    private final Collection<String> implementations = new THashSet<>();
+    private final Collection<String> packages = new THashSet<>();
+    private boolean loadedExisting;
+
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (!loadedExisting) {
+            loadExisting();
+            loadedExisting = true;
+        }
+
+        // We need to see every round (not only the ones with implementations) to know which packages we cover
+        for (Element element : roundEnv.getRootElements()) {
+            packages.add(processingEnv.getElementUtils().getPackageOf(element).getQualifiedName().toString());
+        }
+
+        for (Element element : roundEnv.getElementsAnnotatedWith(Implementation.class)) {
+            // Just like the module loader, we ignore interfaces and annotations
+            if (element.getKind() != ElementKind.CLASS) {
+                continue;
+            }
+
+            final TypeElement implementation = (TypeElement) element;
+            if (getModule(implementation) == null) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                        "Could not resolve module for implementation, it will not be indexed", element);
+                continue;
+            }
+
+            implementations.add(getName(implementation));
+        }
+
+        if (roundEnv.processingOver() && !implementations.isEmpty()) {
+            writeIndex();
+        }
+
+        return false;
+    }
+
+    private void loadExisting() {
+        // Keep the entries of an earlier (incremental) compilation, as long as the classes still exist
+        try {
+            final FileObject existing = processingEnv.getFiler().getResource(StandardLocation.CLASS_OUTPUT, "",
+                    ModuleIndex.LOCATION);
+
+            try (InputStream input = existing.openInputStream()) {
+                final ModuleIndex index = ModuleIndex.read(input);
+                packages.addAll(index.getPackages());
+
+                for (String implementation : index.getImplementations()) {
+                    if (processingEnv.getElementUtils().getTypeElement(implementation.replace('$', '.')) != null) {
+                        implementations.add(implementation);
+                    }
+                }
+            }
+
+        } catch (IOException | IllegalArgumentException ignore) {
+            // There was no index before, which is totally fine
+        }
+    }
+
+    private void writeIndex() {
+        try {
+            final FileObject resource = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    ModuleIndex.LOCATION);
+
+            try (Writer writer = new OutputStreamWriter(resource.openOutputStream(), "UTF-8")) {
+                new ModuleIndex(implementations, packages).write(writer);
+            }
+
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                    "Could not write module index: " + e.getMessage());
+        }
+    }
+
+    private String getModule(TypeElement implementation) {
+        // The developer already provided the wanted class so we'll gladly use that instead
+        final TypeElement explicit = getClassValue(implementation, Implementation.class, "module");
+        if (explicit != null && !isType(explicit, Implementation.Default.class)) {
+            return getName(explicit);
+        }
+
+        final TypeElement module = getModuleRecursively(implementation);
+        return module != null ? getName(module) : null;
+    }
+
+    private TypeElement getModuleRecursively(TypeElement type) {
+        // Let's check interfaces first, the same way the module loader does it at runtime
+        for (TypeMirror anInterface : type.getInterfaces()) {
+            final TypeElement interfaceElement = asElement(anInterface);
+            if (interfaceElement == null || !isModule(interfaceElement)) {
+                continue;
+            }
+
+            // Use our class if it directly implements the module
+            if (type.getKind() != ElementKind.INTERFACE && isModuleInterface(interfaceElement)) {
+                return type;
+            }
+
+            return interfaceElement;
+        }
+
+        // Then go up the class hierarchy
+        final TypeElement superclass = asElement(type.getSuperclass());
+        return superclass != null ? getModuleRecursively(superclass) : null;
+    }
+
+    private boolean isModule(TypeElement type) {
+        final TypeElement module = processingEnv.getElementUtils().getTypeElement(Module.class.getCanonicalName());
+        return module != null && processingEnv.getTypeUtils().isAssignable(
+                processingEnv.getTypeUtils().erasure(type.asType()), module.asType());
+    }
+
+    private boolean isModuleInterface(TypeElement type) {
+        return isType(type, Module.class);
+    }
+
+    private boolean isType(TypeElement type, Class<?> aClass) {
+        return type.getQualifiedName().contentEquals(aClass.getCanonicalName());
+    }
+
+    private String getName(TypeElement type) {
+        return processingEnv.getElementUtils().getBinaryName(type).toString();
+    }
+
+    private TypeElement asElement(TypeMirror mirror) {
+        if (mirror == null || mirror.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+
+        return (TypeElement) ((DeclaredType) mirror).asElement();
+    }
+
+    private TypeElement getClassValue(Element element, Class<?> annotation, String name) {
+        final AnnotationMirror mirror = getAnnotation(element, annotation);
+        return mirror != null ? getClassValue(mirror, name) : null;
+    }
+
+    private TypeElement getClassValue(AnnotationMirror mirror, String name) {
+        final AnnotationValue value = getValue(mirror, name);
+        if (value == null || !(value.getValue() instanceof TypeMirror)) {
+            return null;
+        }
+
+        return asElement((TypeMirror) value.getValue());
+    }
+
+    private AnnotationValue getValue(AnnotationMirror mirror, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry :
+                mirror.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                return entry.getValue();
+            }
+        }
+
+        return null;
+    }
+
+    private AnnotationMirror getAnnotation(Element element, Class<?> annotation) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (isAnnotation(mirror, annotation)) {
+                return mirror;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean isAnnotation(AnnotationMirror mirror, Class<?> annotation) {
+        return isType((TypeElement) mirror.getAnnotationType().asElement(), annotation);
+    }
+
+}
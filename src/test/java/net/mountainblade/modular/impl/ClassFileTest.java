@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.annotations.Implementation;
+import net.mountainblade.modular.examples.Example2Module;
+import net.mountainblade.modular.examples.Example2ModuleImpl;
+import net.mountainblade.modular.examples.Example3Module;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+@RunWith(JUnit4.class)
+public class ClassFileTest {
+
+    @Test
+    public void testImplementation() throws Exception {
+        final ClassFile classFile = read(Example2ModuleImpl.class);
+
+        Assert.assertTrue(classFile.isImplementation());
+        Assert.assertEquals(Example2ModuleImpl.class.getName(), classFile.getName());
+        Assert.assertEquals(Object.class.getName(), classFile.getSuperName());
+        Assert.assertTrue(classFile.getInterfaces().contains(Example2Module.class.getName()));
+        Assert.assertNull(classFile.getImplementedModule());
+    }
+
+    @Test
+    public void testExplicitModule() throws Exception {
+        final ClassFile classFile = read(Explicit.class);
+
+        Assert.assertTrue(classFile.isImplementation());
+        Assert.assertEquals(Example3Module.class.getName(), classFile.getImplementedModule());
+    }
+
+    @Test
+    public void testNoImplementation() throws Exception {
+        Assert.assertFalse(read(Example2Module.class).isImplementation());
+        Assert.assertFalse(read(ClassFileTest.class).isImplementation());
+        Assert.assertFalse(read(Implementation.class).isImplementation());
+    }
+
+    private static ClassFile read(Class<?> aClass) throws IOException {
+        try (InputStream input = aClass.getResourceAsStream("/" + aClass.getName().replace('.', '/') + ".class")) {
+            return ClassFile.read(input);
+        }
+    }
+
+
+    @Implementation(module = Example3Module.class, authors = {"test"})
+    private static class Explicit {
+    }
+
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.TreeSet;
+
+@RunWith(JUnit4.class)
+public class ClassNameIndexTest {
+    private final ClassNameIndex index = new ClassNameIndex(Arrays.asList(
+            "com.shop.plugins.y.Other", "com.shop.Main", "com.shop.plugins.x.Plugin", "com.shop.plugins.x.sub.Impl",
+            "org.example.Test", "com.shop.plugins.xy.Wrong"));
+
+
+    @Test
+    public void testSorted() throws Exception {
+        Assert.assertEquals(6, index.size());
+        Assert.assertEquals("com.shop.Main", index.get(0));
+        Assert.assertEquals("org.example.Test", index.get(5));
+    }
+
+    @Test
+    public void testPrefix() throws Exception {
+        Assert.assertEquals(Arrays.asList("com.shop.plugins.x.Plugin", "com.shop.plugins.x.sub.Impl"),
+                index.withPrefix("com.shop.plugins.x."));
+        Assert.assertEquals(Arrays.asList("com.shop.plugins.x.Plugin", "com.shop.plugins.x.sub.Impl",
+                "com.shop.plugins.xy.Wrong"), index.withPrefix("com.shop.plugins.x"));
+        Assert.assertEquals(Collections.singletonList("com.shop.plugins.x.sub.Impl"),
+                index.withPrefix("com.shop.plugins.x.").withPrefix("com.shop.plugins.x.sub"));
+        Assert.assertSame(index, index.withPrefix(""));
+    }
+
+    @Test
+    public void testManyBlocks() throws Exception {
+        final TreeSet<String> names = new TreeSet<>();
+        for (int i = 0; i < 1000; i++) {
+            names.add("com.shop.plugins.p" + (i % 37) + ".Plugin" + i);
+            names.add("org.\u00fcber.Klasse" + i);
+        }
+
+        final ClassNameIndex many = new ClassNameIndex(new ArrayList<>(names));
+        Assert.assertEquals(new ArrayList<>(names), new ArrayList<>(many));
+        Assert.assertEquals(names.last(), many.get(many.size() - 1));
+
+        for (String prefix : new String[]{"com.shop.plugins.p1", "com.shop.plugins.p36.", "org.\u00fcber.Klasse99"}) {
+            final Collection<String> expected = new ArrayList<>();
+            for (String name : names) {
+                if (name.startsWith(prefix)) {
+                    expected.add(name);
+                }
+            }
+
+            Assert.assertEquals(expected, many.withPrefix(prefix));
+            Assert.assertEquals(expected, new ArrayList<>(many.withPrefix(prefix)));
+        }
+    }
+
+    @Test
+    public void testNoMatches() throws Exception {
+        Assert.assertTrue(index.withPrefix("net.").isEmpty());
+        Assert.assertTrue(index.withPrefix("zzz").isEmpty());
+        Assert.assertTrue(index.withPrefix("a").isEmpty());
+        Assert.assertTrue(new ClassNameIndex(Collections.<String>emptyList()).withPrefix("com").isEmpty());
+    }
+
+}
@@ -0,0 +1,279 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import com.google.common.io.ByteStreams;
+import net.mountainblade.modular.examples.Example3Module;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+@RunWith(JUnit4.class)
+public class ClassPathScannerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testDirectory() throws Exception {
+        final File root = createClasses();
+
+        for (boolean parallel : new boolean[]{false, true}) {
+            final Map<URI, Collection<String>> all = scan(root, "", parallel);
+            Assert.assertEquals(new TreeSet<>(Arrays.asList("com.shop.Main", "com.shop.plugins.x.Plugin",
+                    "com.shop.plugins.xy.Other", "org.example.Test")), new TreeSet<>(all.get(root.toURI())));
+        }
+    }
+
+    @Test
+    public void testMultipleUris() throws Exception {
+        final File first = folder.newFolder("first");
+        create(first, "com/shop/A.class");
+        create(first, "com/shop/plugins/B.class");
+
+        final File second = folder.newFolder("second");
+        create(second, "com/shop/C.class");
+        create(second, "com/shop/plugins/D.class");
+        create(second, "org/example/E.class");
+
+        final File jar = folder.newFile("third.jar");
+        createJar(jar, "com/shop/F.class", "com/shop/plugins/G.class");
+
+        // The same packages in several locations, every location has to keep its own classes
+        final List<URI> uris = Arrays.asList(first.toURI(), second.toURI(), jar.toURI());
+        for (boolean parallel : new boolean[]{false, true}) {
+            final Map<URI, Collection<String>> names = new ClassPathScanner(uris, parallel).scan(uris,
+                    "com" + File.separatorChar + "shop" + File.separatorChar);
+
+            Assert.assertEquals(new HashSet<>(uris), names.keySet());
+            Assert.assertEquals(new TreeSet<>(Arrays.asList("com.shop.A", "com.shop.plugins.B")),
+                    new TreeSet<>(names.get(first.toURI())));
+            Assert.assertEquals(new TreeSet<>(Arrays.asList("com.shop.C", "com.shop.plugins.D")),
+                    new TreeSet<>(names.get(second.toURI())));
+            Assert.assertEquals(new TreeSet<>(Arrays.asList("com.shop.F", "com.shop.plugins.G")),
+                    new TreeSet<>(names.get(jar.toURI())));
+        }
+    }
+
+    @Test
+    public void testPackage() throws Exception {
+        final File root = createClasses();
+        final String packageName = "com" + File.separatorChar + "shop" + File.separatorChar + "plugins" +
+                File.separatorChar + "x" + File.separatorChar;
+
+        for (boolean parallel : new boolean[]{false, true}) {
+            final Map<URI, Collection<String>> names = scan(root, packageName, parallel);
+            Assert.assertEquals(Collections.singletonList("com.shop.plugins.x.Plugin"),
+                    new ArrayList<>(names.get(root.toURI())));
+        }
+    }
+
+    @Test
+    public void testModifiedJar() throws Exception {
+        final File jar = folder.newFile("plugin.jar");
+        createJar(jar, "com/shop/A.class");
+
+        final long hits = ClassPathScanner.getCacheStats().hitCount();
+        Assert.assertEquals(Collections.singletonList("com.shop.A"), scanJar(jar));
+        Assert.assertEquals(Collections.singletonList("com.shop.A"), scanJar(jar));
+        Assert.assertEquals(hits + 1, ClassPathScanner.getCacheStats().hitCount());
+
+        // Replacing the JAR file should not serve the old contents
+        createJar(jar, "com/shop/A.class", "com/shop/B.class");
+        Assert.assertEquals(Arrays.asList("com.shop.A", "com.shop.B"), scanJar(jar));
+    }
+
+    @Test
+    public void testJarEntries() throws Exception {
+        final File jar = folder.newFile("entries.jar");
+        createJar(jar, "com/", "com/shop/", "com/shop/a/", "com/shop/a/B.class", "com/shop/a/b/",
+                "com/shop/a/b/c/D.class", "com/shop/a/data.bin", "com/shop/a/Old.class.bak", "META-INF/notes.txt",
+                "readme.txt");
+
+        // Only the class files are of interest, no matter how deep they are nested
+        Assert.assertEquals(Arrays.asList("com.shop.a.B", "com.shop.a.b.c.D"), scanJar(jar));
+        Assert.assertEquals(Collections.singletonList("com.shop.a.b.c.D"),
+                new ArrayList<>(scan(jar, "com/shop/a/b/", false).get(jar.toURI())));
+    }
+
+    @Test
+    public void testManifestHints() throws Exception {
+        final File skipped = folder.newFile("library.jar");
+        createJarWithManifest(skipped, "Modular-Scan: false", "com/library/A.class");
+        Assert.assertTrue(scanJar(skipped).isEmpty());
+
+        final File restricted = folder.newFile("plugin.jar");
+        createJarWithManifest(restricted, "Modular-Packages: com.shop.plugins, org.example", "com/shop/Main.class",
+                "com/shop/plugins/Plugin.class", "com/shop/plugins/sub/Other.class", "org/example/Test.class",
+                "org/examples/Wrong.class");
+        Assert.assertEquals(Arrays.asList("com.shop.plugins.Plugin", "com.shop.plugins.sub.Other",
+                "org.example.Test"), scanJar(restricted));
+    }
+
+    @Test
+    public void testPartialIndex() throws Exception {
+        // Only the "com.shop.a" package went through the processor, the other one got merged in later on
+        final String index = "package com.shop.a\ncom.shop.a.Plugin\n";
+
+        final File jar = folder.newFile("shaded.jar");
+        try (JarOutputStream output = new JarOutputStream(new FileOutputStream(jar))) {
+            output.putNextEntry(new ZipEntry(ModuleIndex.LOCATION));
+            output.write(index.getBytes("UTF-8"));
+
+            for (String entry : new String[]{"com/shop/a/Plugin.class", "com/shop/a/Helper.class",
+                    "com/shop/b/Other.class"}) {
+                output.putNextEntry(new ZipEntry(entry));
+            }
+        }
+
+        Assert.assertEquals(Arrays.asList("com.shop.a.Plugin", "com.shop.b.Other"), scanJar(jar));
+
+        final File root = folder.newFolder("indexed");
+        create(root, "com/shop/a/Plugin.class");
+        create(root, "com/shop/a/Helper.class");
+        create(root, "com/shop/b/Other.class");
+        create(root, ModuleIndex.LOCATION);
+        Files.write(new File(root, ModuleIndex.LOCATION).toPath(), index.getBytes("UTF-8"));
+
+        for (boolean parallel : new boolean[]{false, true}) {
+            Assert.assertEquals(new TreeSet<>(Arrays.asList("com.shop.a.Plugin", "com.shop.b.Other")),
+                    new TreeSet<>(scan(root, "", parallel).get(root.toURI())));
+        }
+    }
+
+    @Test
+    public void testDeduplication() throws Exception {
+        final File first = folder.newFile("first.jar");
+        createJar(first, "com/shop/A.class");
+
+        final File second = new File(folder.newFolder("copy"), "second.jar");
+        Files.copy(first.toPath(), second.toPath());
+
+        final Collection<URI> uris = Arrays.asList(first.toURI(), second.toURI());
+        Assert.assertEquals(2, new ClassPathScanner(uris, false).scan(uris, "").size());
+
+        ClassPathScanner.setDeduplication(true);
+        try {
+            final Map<URI, Collection<String>> classNames = new ClassPathScanner(uris, false).scan(uris, "");
+            Assert.assertEquals(Collections.singleton(first.toURI()), classNames.keySet());
+            Assert.assertEquals(Collections.singletonList("com.shop.A"),
+                    new ArrayList<>(classNames.get(first.toURI())));
+
+        } finally {
+            ClassPathScanner.setDeduplication(false);
+        }
+    }
+
+    @Test
+    public void testPreScreening() throws Exception {
+        final String implementation = Example3Module.class.getName().replace('.', '/') + ".class";
+        final String other = ClassPathScannerTest.class.getName().replace('.', '/') + ".class";
+
+        final File jar = folder.newFile("screened.jar");
+        try (JarOutputStream output = new JarOutputStream(new FileOutputStream(jar))) {
+            for (String entry : new String[]{implementation, other}) {
+                output.putNextEntry(new ZipEntry(entry));
+
+                try (InputStream input = getClass().getResourceAsStream("/" + entry)) {
+                    ByteStreams.copy(input, output);
+                }
+            }
+
+            // Class files we can't read are kept, so the class loader can decide
+            output.putNextEntry(new ZipEntry("com/shop/Broken.class"));
+        }
+
+        final Collection<URI> uris = Collections.singleton(jar.toURI());
+        final ClassPathScanner screening = new ClassPathScanner(uris, false, true,
+                BaseModuleManager.getGlobalBlacklist().getMatcher());
+        Assert.assertEquals(Arrays.asList("com.shop.Broken", Example3Module.class.getName()),
+                new ArrayList<>(screening.scan(uris, "").get(jar.toURI())));
+
+        // The cached listing remembers its mode, so other scanners still get to see every class
+        Assert.assertEquals(3, scanJar(jar).size());
+        Assert.assertEquals(2, screening.scan(uris, "").get(jar.toURI()).size());
+    }
+
+    private List<String> scanJar(File jar) {
+        return new ArrayList<>(scan(jar, "", false).get(jar.toURI()));
+    }
+
+    private Map<URI, Collection<String>> scan(File root, String packageName, boolean parallel) {
+        return new ClassPathScanner(Collections.singleton(root.toURI()), parallel)
+                .scan(Collections.singleton(root.toURI()), packageName);
+    }
+
+    private File createClasses() throws IOException {
+        final File root = folder.newFolder("classes");
+        create(root, "com/shop/Main.class");
+        create(root, "com/shop/package-info.class");
+        create(root, "com/shop/plugins/x/Plugin.class");
+        create(root, "com/shop/plugins/xy/Other.class");
+        create(root, "org/example/Test.class");
+        create(root, ".git/Ignored.class");
+
+        return root;
+    }
+
+    private static void createJar(File file, String... entries) throws IOException {
+        createJarWithManifest(file, null, entries);
+    }
+
+    private static void createJarWithManifest(File file, String attribute, String... entries) throws IOException {
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+
+        if (attribute != null) {
+            final String[] parts = attribute.split(": ", 2);
+            manifest.getMainAttributes().putValue(parts[0], parts[1]);
+        }
+
+        try (JarOutputStream output = new JarOutputStream(new FileOutputStream(file), manifest)) {
+            for (String entry : entries) {
+                output.putNextEntry(new ZipEntry(entry));
+            }
+        }
+    }
+
+    private static void create(File root, String path) throws IOException {
+        final File file = new File(root, path);
+        Assert.assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        Assert.assertTrue(file.createNewFile());
+    }
+
+}
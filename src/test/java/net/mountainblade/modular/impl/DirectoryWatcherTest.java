@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.examples.Example2Module;
+import net.mountainblade.modular.examples.Example2ModuleImpl;
+import net.mountainblade.modular.examples.Example3Module;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+@RunWith(JUnit4.class)
+public class DirectoryWatcherTest {
+    private static final long TIMEOUT = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testAddedAndReplacedJars() throws Exception {
+        final File directory = folder.newFolder("plugins");
+        final BaseModuleManager manager = new DefaultModuleManager();
+        final Closeable watcher = manager.watchModules(directory);
+
+        // New JAR files get loaded
+        moveInto(directory, "first.jar", Example3Module.class);
+        Assert.assertTrue(awaitModule(manager, Example3Module.class, TIMEOUT));
+
+        // Replaced ones are ignored, the realm would still read the old file
+        moveInto(directory, "first.jar", Example3Module.class, Example2Module.class, Example2ModuleImpl.class);
+        Assert.assertFalse(awaitModule(manager, Example2Module.class, 2000));
+
+        // ... unless they get a new name
+        moveInto(directory, "second.jar", Example2Module.class, Example2ModuleImpl.class);
+        Assert.assertTrue(awaitModule(manager, Example2Module.class, TIMEOUT));
+
+        watcher.close();
+        manager.shutdown();
+    }
+
+    private void moveInto(File directory, String name, Class<?>... classes) throws IOException {
+        final File jar = folder.newFile();
+
+        try (JarOutputStream output = new JarOutputStream(new FileOutputStream(jar))) {
+            for (Class<?> aClass : classes) {
+                final String path = aClass.getName().replace('.', '/') + ".class";
+                output.putNextEntry(new ZipEntry(path));
+
+                try (InputStream input = getClass().getResourceAsStream("/" + path)) {
+                    final byte[] buffer = new byte[4096];
+                    int read;
+                    while ((read = input.read(buffer)) >= 0) {
+                        output.write(buffer, 0, read);
+                    }
+                }
+            }
+        }
+
+        // Make sure the watcher never sees a half-written file
+        Files.move(jar.toPath(), new File(directory, name).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static boolean awaitModule(BaseModuleManager manager, Class<? extends Module> module, long timeout)
+            throws InterruptedException {
+        final long end = System.currentTimeMillis() + timeout;
+
+        while (System.currentTimeMillis() < end) {
+            if (manager.getModule(module).isPresent()) {
+                return true;
+            }
+
+            Thread.sleep(50);
+        }
+
+        return false;
+    }
+
+}
@@ -0,0 +1,60 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.examples.Example3Module;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+
+@RunWith(JUnit4.class)
+public class DiscoveryModeTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testServices() throws Exception {
+        final File root = folder.newFolder("classes");
+        final File services = new File(root, ClassPathScanner.SERVICES_LOCATION);
+        Assert.assertTrue(services.getParentFile().mkdirs());
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(services), "UTF-8")) {
+            writer.write("# Our modules\n" + Example3Module.class.getName() + "  # the third one\n\n");
+        }
+
+        final BaseModuleManager manager = new DefaultModuleManager();
+        Assert.assertEquals(DiscoveryMode.SCAN, manager.getDiscoveryMode());
+        manager.setDiscoveryMode(DiscoveryMode.SERVICES);
+
+        final Collection<Module> modules = manager.loadModules(root);
+        Assert.assertEquals(1, modules.size());
+        Assert.assertTrue(modules.iterator().next() instanceof Example3Module);
+
+        manager.shutdown();
+    }
+
+}
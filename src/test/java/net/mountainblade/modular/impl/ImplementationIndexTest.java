@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.examples.Example2Module;
+import net.mountainblade.modular.examples.Example2ModuleImpl;
+import net.mountainblade.modular.examples.Example3Module;
+import net.mountainblade.modular.examples.ExampleModule;
+import org.codehaus.plexus.classworlds.realm.ClassRealm;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+@RunWith(JUnit4.class)
+public class ImplementationIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testIndex() throws Exception {
+        final File root = folder.newFolder("classes");
+        for (Class<?> aClass : new Class<?>[]{Example2Module.class, Example2ModuleImpl.class, Example3Module.class}) {
+            final String path = aClass.getName().replace('.', '/') + ".class";
+            final File file = new File(root, path);
+            Assert.assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+
+            try (InputStream input = getClass().getResourceAsStream("/" + path)) {
+                Files.copy(input, file.toPath());
+            }
+        }
+
+        final Collection<URI> uris = Collections.singleton(root.toURI());
+        final ClassPathScanner scanner = new ClassPathScanner(uris, false);
+        final Map<URI, Collection<String>> classNames = scanner.scan(uris, "");
+
+        final ClassRealm realm = BaseModuleManager.newRealm(null, null);
+        realm.addURL(root.toURI().toURL());
+
+        final ImplementationIndex index = ImplementationIndex.build(realm, classNames, scanner.getSnapshot());
+        Assert.assertEquals(Collections.singletonList(Example2ModuleImpl.class.getName()),
+                new ArrayList<>(index.get(Example2Module.class.getName())));
+        Assert.assertEquals(Collections.singletonList(Example3Module.class.getName()),
+                new ArrayList<>(index.get(Module.class.getName())));
+        Assert.assertTrue(index.get(ExampleModule.class.getName()).isEmpty());
+        Assert.assertEquals(2, index.getAll().size());
+        Assert.assertTrue(index.isUpToDate());
+
+        Assert.assertTrue(root.setLastModified(root.lastModified() - 10000));
+        Assert.assertFalse(index.isUpToDate());
+    }
+
+    @Test
+    public void testLoadImplementationOf() throws Exception {
+        final BaseModuleManager manager = new DefaultModuleManager();
+
+        // The implementation also needs the third example module, but nothing else
+        final Example2Module module = manager.loadImplementationOf(Example2Module.class);
+        Assert.assertTrue(module instanceof Example2ModuleImpl);
+        Assert.assertSame(module, manager.getModule(Example2Module.class).orNull());
+        Assert.assertTrue(manager.getModule(Example3Module.class).isPresent());
+        Assert.assertFalse(manager.getModule(ExampleModule.class).isPresent());
+
+        Assert.assertSame(module, manager.loadImplementationOf(Example2Module.class));
+        manager.shutdown();
+    }
+
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import com.google.common.io.ByteStreams;
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.examples.Example3Module;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+@RunWith(JUnit4.class)
+public class InMemoryTest {
+    private static final String CLASS_FILE = Example3Module.class.getName().replace('.', '/') + ".class";
+
+
+    @Test
+    public void testJar() throws Exception {
+        final BaseModuleManager manager = new DefaultModuleManager();
+        assertLoaded(manager, manager.loadModules(ByteBuffer.wrap(createJar())));
+        manager.shutdown();
+    }
+
+    @Test
+    public void testJarAtPosition() throws Exception {
+        final byte[] jar = createJar();
+        final ByteBuffer buffer = ByteBuffer.allocate(jar.length + 16);
+        buffer.position(16);
+        buffer.put(jar);
+        buffer.position(16);
+
+        // The archive starts at the buffer's position, not at the start of its backing array
+        final BaseModuleManager manager = new DefaultModuleManager();
+        assertLoaded(manager, manager.loadModules(buffer));
+        Assert.assertEquals(16, buffer.position());
+        manager.shutdown();
+    }
+
+    @Test
+    public void testUnregisteredOnShutdown() throws Exception {
+        final BaseModuleManager manager = new DefaultModuleManager();
+        assertLoaded(manager, manager.loadModules(ByteBuffer.wrap(createJar())));
+
+        final URL url = manager.getLoader().getRealm().findResource(CLASS_FILE);
+        url.openStream().close();
+        manager.shutdown();
+
+        try {
+            url.openStream().close();
+            Assert.fail("The archive should have been unregistered along with the realm");
+
+        } catch (FileNotFoundException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testClasses() throws Exception {
+        final BaseModuleManager manager = new DefaultModuleManager();
+        final Map<String, byte[]> classes = Collections.singletonMap(Example3Module.class.getName(), readClass());
+
+        assertLoaded(manager, manager.loadModules(classes));
+        manager.shutdown();
+    }
+
+    @Test
+    public void testInvalidJar() throws Exception {
+        final BaseModuleManager manager = new DefaultModuleManager();
+        Assert.assertTrue(manager.loadModules(ByteBuffer.wrap(new byte[]{1, 2, 3})).isEmpty());
+        manager.shutdown();
+    }
+
+    @Test
+    public void testInvalidOffsets() throws Exception {
+        // An end record claiming a central directory entry outside of the buffer
+        final ByteBuffer buffer = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(42, 0x06054b50);
+        buffer.putShort(42 + 10, (short) 1);
+        buffer.putInt(42 + 16, 1000);
+
+        final BaseModuleManager manager = new DefaultModuleManager();
+        Assert.assertTrue(manager.loadModules(buffer).isEmpty());
+        manager.shutdown();
+
+        // A central directory entry pointing to a local header outside of the archive
+        final ByteBuffer jar = ByteBuffer.wrap(createJar()).order(ByteOrder.LITTLE_ENDIAN);
+        final ZipArchive archive = new ZipArchive(jar);
+        final ZipArchive.Entry entry = archive.getEntry(CLASS_FILE);
+        Assert.assertNotNull(entry);
+
+        int central = jar.limit() - 22;
+        central = jar.getInt(central + 16);
+        while (jar.getShort(central + 28) != CLASS_FILE.length() ||
+                !CLASS_FILE.equals(new String(jar.array(), central + 46, CLASS_FILE.length(), "UTF-8"))) {
+            central += 46 + jar.getShort(central + 28) + jar.getShort(central + 30) + jar.getShort(central + 32);
+        }
+
+        jar.putInt(central + 42, jar.limit() - 10);
+        final ZipArchive broken = new ZipArchive(jar);
+
+        try {
+            broken.getData(broken.getEntry(CLASS_FILE));
+            Assert.fail("The local header is out of bounds");
+
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static void assertLoaded(BaseModuleManager manager, Collection<Module> modules) {
+        Assert.assertEquals(1, modules.size());
+        Assert.assertTrue(modules.iterator().next() instanceof Example3Module);
+
+        // The realm itself serves the class file from memory
+        final URL url = manager.getLoader().getRealm().findResource(CLASS_FILE);
+        Assert.assertNotNull(url);
+        Assert.assertEquals(NestedJarHandler.PROTOCOL, url.getProtocol());
+    }
+
+    private static byte[] createJar() throws IOException {
+        final ByteArrayOutputStream jar = new ByteArrayOutputStream();
+        try (JarOutputStream output = new JarOutputStream(jar)) {
+            output.putNextEntry(new ZipEntry(CLASS_FILE));
+            output.write(readClass());
+        }
+
+        return jar.toByteArray();
+    }
+
+    private static byte[] readClass() throws IOException {
+        try (InputStream input = InMemoryTest.class.getResourceAsStream("/" + CLASS_FILE)) {
+            return ByteStreams.toByteArray(input);
+        }
+    }
+
+}
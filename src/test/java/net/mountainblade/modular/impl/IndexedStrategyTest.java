@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.junit.Repeat;
+import org.codehaus.plexus.classworlds.realm.ClassRealm;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.HashSet;
+
+@RunWith(JUnit4.class)
+public class IndexedStrategyTest {
+    private static final String CLASS_FILE = Repeat.class.getName().replace('.', '/') + ".class";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testApplicationClasses() throws Exception {
+        final File root = copyClass();
+
+        final BaseModuleManager parent = new DefaultModuleManager();
+        parent.getLoader().setLoadingStrategy(IndexedStrategy.class);
+        parent.loadModules(root);
+
+        final HierarchicModuleManager child = new HierarchicModuleManager(parent);
+        final ClassRealm childRealm = child.getLoader().getRealm();
+        Assert.assertTrue(childRealm.getStrategy() instanceof IndexedStrategy);
+        Assert.assertSame(childRealm, childRealm.getStrategy().getRealm());
+
+        // The application can see the package as well, so it has to be loaded from there
+        Assert.assertSame(Repeat.class, childRealm.loadClass(Repeat.class.getName()));
+        Assert.assertSame(Repeat.class, parent.getLoader().getRealm().loadClass(Repeat.class.getName()));
+        Assert.assertEquals(Repeat.class.getResource("/" + CLASS_FILE), childRealm.getResource(CLASS_FILE));
+        Assert.assertSame(Test.class, childRealm.loadClass(Test.class.getName()));
+
+        child.shutdown();
+        parent.shutdown();
+    }
+
+    @Test
+    public void testOwningRealm() throws Exception {
+        final File root = copyClass();
+
+        // Without the application's class path the package is only known to the parent's realm
+        final BaseModuleManager parent = new DefaultModuleManager(new URLClassLoader(new URL[0], null));
+        parent.getLoader().setLoadingStrategy(IndexedStrategy.class);
+        parent.loadModules(root);
+
+        final HierarchicModuleManager child = new HierarchicModuleManager(parent);
+        final ClassRealm parentRealm = parent.getLoader().getRealm();
+        final ClassRealm childRealm = child.getLoader().getRealm();
+
+        final Class<?> aClass = childRealm.loadClass(Repeat.class.getName());
+        Assert.assertSame(parentRealm, aClass.getClassLoader());
+        Assert.assertSame(aClass, parentRealm.loadClass(Repeat.class.getName()));
+        Assert.assertNotSame(Repeat.class, aClass);
+
+        final URL resource = childRealm.getResource(CLASS_FILE);
+        Assert.assertNotNull(resource);
+        Assert.assertEquals(new File(root, CLASS_FILE).toURI(), resource.toURI());
+
+        child.shutdown();
+        parent.shutdown();
+    }
+
+    @Test
+    public void testSameModules() throws Exception {
+        final BaseModuleManager manager = new DefaultModuleManager();
+        final Collection<String> expected = getClassNames(manager.loadModules(""));
+        Assert.assertFalse(expected.isEmpty());
+
+        final BaseModuleManager indexed = new DefaultModuleManager();
+        indexed.getLoader().setLoadingStrategy(IndexedStrategy.class);
+        Assert.assertEquals(expected, getClassNames(indexed.loadModules("")));
+
+        indexed.shutdown();
+        manager.shutdown();
+    }
+
+    private File copyClass() throws IOException {
+        final File root = folder.newFolder("classes");
+        final File file = new File(root, CLASS_FILE);
+        Assert.assertTrue(file.getParentFile().mkdirs());
+
+        try (InputStream input = getClass().getResourceAsStream("/" + CLASS_FILE)) {
+            Files.copy(input, file.toPath());
+        }
+
+        return root;
+    }
+
+    private static Collection<String> getClassNames(Collection<Module> modules) {
+        // Modules of JAR files outside the class path are defined by each realm, so we compare their names
+        final Collection<String> classNames = new HashSet<>();
+        for (Module module : modules) {
+            classNames.add(module.getClass().getName());
+        }
+
+        return classNames;
+    }
+
+}
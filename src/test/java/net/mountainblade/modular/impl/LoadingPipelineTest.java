@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.examples.Example2Module;
+import net.mountainblade.modular.examples.Example2ModuleImpl;
+import net.mountainblade.modular.examples.Example3Module;
+import net.mountainblade.modular.examples.ExampleModule;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@RunWith(JUnit4.class)
+public class LoadingPipelineTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testDependenciesInLaterLocations() throws Exception {
+        // Each module depends on the one in the next location, so nothing is ready until the last one got scanned
+        final List<URI> uris = Arrays.asList(
+                createClasses("first", ExampleModule.class),
+                createClasses("second", Example2Module.class, Example2ModuleImpl.class),
+                createClasses("third", Example3Module.class));
+
+        BaseModuleManager.enablePipelinedLoading(true);
+        try {
+            final BaseModuleManager manager = new DefaultModuleManager();
+            final Collection<Module> modules = manager.loadModules(uris, "");
+
+            Assert.assertEquals(3, modules.size());
+            Assert.assertTrue(manager.getModule(ExampleModule.class).isPresent());
+            Assert.assertTrue(manager.getModule(Example2Module.class).isPresent());
+            Assert.assertTrue(manager.getModule(Example3Module.class).isPresent());
+
+            manager.shutdown();
+
+        } finally {
+            BaseModuleManager.enablePipelinedLoading(false);
+        }
+    }
+
+    @Test
+    public void testSameLocationTwice() throws Exception {
+        final URI uri = createClasses("twice", Example3Module.class);
+
+        BaseModuleManager.enablePipelinedLoading(true);
+        try {
+            final BaseModuleManager manager = new DefaultModuleManager();
+            final Collection<Module> modules = manager.loadModules(Arrays.asList(uri, uri), "");
+
+            Assert.assertEquals(1, modules.size());
+            Assert.assertTrue(modules.iterator().next() instanceof Example3Module);
+
+            manager.shutdown();
+
+        } finally {
+            BaseModuleManager.enablePipelinedLoading(false);
+        }
+    }
+
+    @Test
+    public void testFailingStage() throws Exception {
+        final URI uri = createClasses("failing", Example3Module.class);
+
+        BaseModuleManager.enablePipelinedLoading(true);
+        try {
+            final BaseModuleManager manager = new DefaultModuleManager(new FailingClassLoader());
+
+            // Errors of the class loading thread have to end up with the caller, just like in a serial load
+            try {
+                manager.loadModules(Collections.singletonList(uri), "");
+                Assert.fail("The error of the static initializer got lost");
+
+            } catch (BrokenError e) {
+                // Expected
+            }
+
+            // And the incomplete result must not be handed out again
+            final Collection<Module> modules = manager.loadModules(Collections.singletonList(uri), "");
+            Assert.assertEquals(1, modules.size());
+            Assert.assertTrue(modules.iterator().next() instanceof Example3Module);
+
+            manager.shutdown();
+
+        } finally {
+            BaseModuleManager.enablePipelinedLoading(false);
+        }
+    }
+
+    private URI createClasses(String name, Class<?>... classes) throws IOException {
+        final File root = folder.newFolder(name);
+
+        for (Class<?> aClass : classes) {
+            final String path = aClass.getName().replace('.', '/') + ".class";
+            final File file = new File(root, path);
+            Assert.assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+
+            try (InputStream input = getClass().getResourceAsStream("/" + path)) {
+                Files.copy(input, file.toPath());
+            }
+        }
+
+        return root.toURI();
+    }
+
+
+    /**
+     * Initializes a class with a broken static initializer the first time the module class gets loaded.
+     */
+    private static final class FailingClassLoader extends ClassLoader {
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+
+        private FailingClassLoader() {
+            super(LoadingPipelineTest.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (Example3Module.class.getName().equals(name) && failed.compareAndSet(false, true)) {
+                BrokenInitializer.initialize();
+            }
+
+            return super.loadClass(name, resolve);
+        }
+
+    }
+
+    private static final class BrokenInitializer {
+
+        static {
+            if (true) {
+                throw new BrokenError();
+            }
+        }
+
+        private static void initialize() {
+            // Only used to trigger the static initializer
+        }
+
+    }
+
+    private static final class BrokenError extends Error {
+    }
+
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.processor.ModuleIndexProcessor;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+
+@RunWith(JUnit4.class)
+public class ModuleIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testReadWrite() throws Exception {
+        final ModuleIndex index = new ModuleIndex(Arrays.asList("com.shop.b.Plugin", "com.shop.a.Plugin$Inner"),
+                Arrays.asList("com.shop.b", "com.shop.a", ""));
+
+        final StringWriter writer = new StringWriter();
+        index.write(writer);
+
+        final ModuleIndex read = ModuleIndex.read(toStream(writer.toString()));
+        Assert.assertEquals(new HashSet<>(index.getImplementations()), new HashSet<>(read.getImplementations()));
+        Assert.assertEquals(new HashSet<>(index.getPackages()), new HashSet<>(read.getPackages()));
+
+        // The same index always results in the same file
+        final StringWriter again = new StringWriter();
+        read.write(again);
+        Assert.assertEquals(writer.toString(), again.toString());
+    }
+
+    @Test
+    public void testCovers() throws Exception {
+        final ModuleIndex index = new ModuleIndex(Collections.singleton("com.shop.a.Plugin"),
+                Arrays.asList("com.shop.a", ""));
+
+        Assert.assertTrue(index.covers("com.shop.a.Helper"));
+        Assert.assertTrue(index.covers("com.shop.a.Helper$Inner"));
+        Assert.assertTrue(index.covers("Helper"));
+        Assert.assertFalse(index.covers("com.shop.a.sub.Helper"));
+        Assert.assertFalse(index.covers("com.shop.Helper"));
+    }
+
+    @Test
+    public void testOldFormat() throws Exception {
+        // Earlier indexes stored tab separated module information and no packages, so they cover nothing
+        final ModuleIndex index = ModuleIndex.read(toStream("# comment\n" +
+                "com.shop.Plugin\tcom.shop.PluginModule\t\tcom.shop.Other\n"));
+
+        Assert.assertEquals(Collections.singletonList("com.shop.Plugin"), new LinkedList<>(index.getImplementations()));
+        Assert.assertFalse(index.covers("com.shop.Plugin"));
+    }
+
+    @Test
+    public void testProcessor() throws Exception {
+        final File sources = folder.newFolder("sources");
+        final File output = folder.newFolder("output");
+
+        final Collection<File> files = Arrays.asList(
+                write(sources, "com/shop/a/Plugin.java", "package com.shop.a;\n" +
+                        "@net.mountainblade.modular.annotations.Implementation\n" +
+                        "public class Plugin implements net.mountainblade.modular.Module {\n" +
+                        "    @net.mountainblade.modular.annotations.Implementation\n" +
+                        "    public static class Inner implements net.mountainblade.modular.Module {}\n" +
+                        "}\n"),
+                write(sources, "com/shop/a/Helper.java", "package com.shop.a;\npublic class Helper {}\n"),
+                write(sources, "com/shop/b/Other.java", "package com.shop.b;\npublic interface Other {}\n"));
+
+        compile(output, files);
+
+        final ModuleIndex index;
+        try (InputStream input = new FileInputStream(new File(output, ModuleIndex.LOCATION))) {
+            index = ModuleIndex.read(input);
+        }
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList("com.shop.a.Plugin", "com.shop.a.Plugin$Inner")),
+                new HashSet<>(index.getImplementations()));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("com.shop.a", "com.shop.b")),
+                new HashSet<>(index.getPackages()));
+
+        // Compiling only some of the classes again keeps the rest of the index
+        final File other = write(sources, "com/shop/c/Third.java", "package com.shop.c;\n" +
+                "@net.mountainblade.modular.annotations.Implementation\n" +
+                "public class Third implements net.mountainblade.modular.Module {}\n");
+        compile(output, Collections.singletonList(other));
+
+        try (InputStream input = new FileInputStream(new File(output, ModuleIndex.LOCATION))) {
+            final ModuleIndex updated = ModuleIndex.read(input);
+            Assert.assertEquals(new HashSet<>(Arrays.asList("com.shop.a.Plugin", "com.shop.a.Plugin$Inner",
+                    "com.shop.c.Third")), new HashSet<>(updated.getImplementations()));
+            Assert.assertTrue(updated.covers("com.shop.b.Other"));
+            Assert.assertTrue(updated.covers("com.shop.c.Third"));
+        }
+    }
+
+    private void compile(File output, Collection<File> files) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Assert.assertNotNull("Tests need to run on a JDK", compiler);
+
+        // The classes compiled earlier need to be found, just like they would in an incremental build
+        final String classPath = output.getPath() + File.pathSeparator +
+                new File(Module.class.getProtectionDomain().getCodeSource().getLocation().getPath()).getPath();
+
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+            final Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjectsFromFiles(files);
+            final JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, null,
+                    Arrays.asList("-d", output.getPath(), "-classpath", classPath), null, units);
+
+            task.setProcessors(Collections.singletonList(new ModuleIndexProcessor()));
+            Assert.assertTrue("Compilation failed", task.call());
+        }
+    }
+
+    private static File write(File root, String path, String source) throws IOException {
+        final File file = new File(root, path);
+        Assert.assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        Files.write(file.toPath(), source.getBytes(StandardCharsets.UTF_8));
+
+        return file;
+    }
+
+    private static InputStream toStream(String contents) {
+        return new ByteArrayInputStream(contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import org.codehaus.plexus.classworlds.realm.ClassRealm;
+import org.codehaus.plexus.classworlds.strategy.SelfFirstStrategy;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ModuleLoaderTest {
+
+    @Test
+    public void testCustomStrategy() throws Exception {
+        final BaseModuleManager parent = new DefaultModuleManager();
+        parent.getLoader().setLoadingStrategy(CustomStrategy.class);
+
+        final ClassRealm parentRealm = parent.getLoader().getRealm();
+        Assert.assertTrue(parentRealm.getStrategy() instanceof CustomStrategy);
+        Assert.assertSame(parentRealm, parentRealm.getStrategy().getRealm());
+
+        // Children get their own instance, bound to their own realm
+        final HierarchicModuleManager child = new HierarchicModuleManager(parent);
+        final ClassRealm childRealm = child.getLoader().getRealm();
+        Assert.assertTrue(childRealm.getStrategy() instanceof CustomStrategy);
+        Assert.assertSame(childRealm, childRealm.getStrategy().getRealm());
+
+        child.shutdown();
+        parent.shutdown();
+    }
+
+    @Test
+    public void testStrategyWithoutRealmConstructor() throws Exception {
+        final BaseModuleManager parent = new DefaultModuleManager();
+        parent.getLoader().setLoadingStrategy(new UnboundStrategy(parent.getLoader().getRealm(), "unbound"));
+
+        try {
+            new HierarchicModuleManager(parent);
+            Assert.fail("The child should not silently fall back to another strategy");
+
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains(UnboundStrategy.class.getName()));
+        }
+
+        try {
+            parent.getLoader().setLoadingStrategy(UnboundStrategy.class);
+            Assert.fail("The strategy cannot be created by its class");
+
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        parent.shutdown();
+    }
+
+
+    public static class CustomStrategy extends SelfFirstStrategy {
+
+        public CustomStrategy(ClassRealm realm) {
+            super(realm);
+        }
+
+    }
+
+    public static class UnboundStrategy extends SelfFirstStrategy {
+
+        public UnboundStrategy(ClassRealm realm, String name) {
+            super(realm);
+        }
+
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.junit.Repeat;
+import org.codehaus.plexus.classworlds.ClassWorld;
+import org.codehaus.plexus.classworlds.realm.ClassRealm;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+
+@RunWith(JUnit4.class)
+public class ModuleRealmTest {
+
+    @Test
+    public void testMissingClasses() throws Exception {
+        final String name = Repeat.class.getName();
+        final ModuleRealm realm = new ModuleRealm(new ClassWorld(), "test", new URLClassLoader(new URL[0], null));
+        Assert.assertFalse(realm.isKnownMissing(name));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                realm.loadClass(name);
+                Assert.fail("Class should not be visible without its location");
+
+            } catch (ClassNotFoundException e) {
+                Assert.assertTrue(realm.isKnownMissing(name));
+            }
+        }
+
+        Assert.assertFalse(realm.hasClass(name));
+
+        // Adding the location makes the class available again
+        realm.addURL(new File(Repeat.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toURI()
+                .toURL());
+        Assert.assertFalse(realm.isKnownMissing(name));
+        Assert.assertTrue(realm.hasClass(name));
+
+        final Class<?> loaded = realm.loadClass(name);
+        Assert.assertEquals(name, loaded.getName());
+        Assert.assertSame(realm, loaded.getClassLoader());
+    }
+
+    @Test
+    public void testHierarchy() throws Exception {
+        final ClassRealm parent = BaseModuleManager.newRealm(null, new URLClassLoader(new URL[0], null));
+        final ClassRealm child = BaseModuleManager.newRealm(parent, null);
+        Assert.assertTrue(parent instanceof ModuleRealm);
+        Assert.assertTrue(child instanceof ModuleRealm);
+        Assert.assertSame(parent, child.getParentRealm());
+
+        // Both realms remember the miss, until the parent gets a new location
+        final String name = Repeat.class.getName();
+        try {
+            child.loadClass(name);
+            Assert.fail("Class should not be visible without its location");
+
+        } catch (ClassNotFoundException e) {
+            Assert.assertTrue(((ModuleRealm) parent).isKnownMissing(name));
+            Assert.assertTrue(((ModuleRealm) child).isKnownMissing(name));
+        }
+
+        Assert.assertFalse(((ModuleRealm) child).hasClass(name));
+        parent.addURL(new File(Repeat.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toURI()
+                .toURL());
+        Assert.assertSame(parent, child.loadClass(name).getClassLoader());
+    }
+
+    @Test
+    public void testImports() throws Exception {
+        final String name = Repeat.class.getName();
+        final URL location = new File(Repeat.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .toURI().toURL();
+
+        final ClassWorld world = new ClassWorld();
+        final ModuleRealm exporter = new ModuleRealm(world, "exporter", new URLClassLoader(new URL[0], null));
+        final ModuleRealm realm = new ModuleRealm(world, "test", new URLClassLoader(new URL[0], null));
+        Assert.assertFalse(realm.hasClass(name));
+        Assert.assertTrue(realm.isKnownMissing(name));
+
+        // Importing from another realm could make the class visible
+        realm.importFrom(exporter, Repeat.class.getPackage().getName());
+        Assert.assertFalse(realm.isKnownMissing(name));
+
+        try {
+            realm.loadClass(name);
+            Assert.fail("Class should not be visible without its location");
+
+        } catch (ClassNotFoundException e) {
+            Assert.assertTrue(realm.isKnownMissing(name));
+        }
+
+        exporter.addURL(location);
+        Assert.assertSame(exporter, realm.loadClass(name).getClassLoader());
+    }
+
+    @Test
+    public void testUntrackedParent() throws Exception {
+        final ClassWorld world = new ClassWorld();
+        final ClassRealm parent = new ClassRealm(world, "parent", new URLClassLoader(new URL[0], null));
+        final ModuleRealm child = new ModuleRealm(world, "child", null);
+        child.setParentRealm(parent);
+
+        // We don't get notified about new locations of plain realms, so we must not remember anything
+        final String name = Repeat.class.getName();
+        try {
+            child.loadClass(name);
+            Assert.fail("Class should not be visible without its location");
+
+        } catch (ClassNotFoundException e) {
+            Assert.assertFalse(child.isKnownMissing(name));
+        }
+
+        parent.addURL(new File(Repeat.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toURI()
+                .toURL());
+        Assert.assertSame(parent, child.loadClass(name).getClassLoader());
+    }
+
+}
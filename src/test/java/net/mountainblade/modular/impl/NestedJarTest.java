@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+@RunWith(JUnit4.class)
+public class NestedJarTest {
+    private static final String PAYLOAD = Payload.class.getName().replace('.', '/') + ".class";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testScan() throws Exception {
+        final File fatJar = createFatJar();
+        final Map<URI, Collection<String>> names = new ClassPathScanner(Collections.<URI>emptySet(), false)
+                .scan(Collections.singleton(fatJar.toURI()), "");
+
+        for (String entry : new String[]{"lib/stored.jar", "lib/deflated.jar"}) {
+            final URI nested = NestedJarHandler.toUri(fatJar, entry);
+            Assert.assertTrue(NestedJarHandler.isNested(nested));
+            Assert.assertEquals(Collections.singletonList(Payload.class.getName()), names.get(nested));
+        }
+
+        Assert.assertFalse(NestedJarHandler.isNested(fatJar.toURI()));
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        final File fatJar = createFatJar();
+
+        for (String entry : new String[]{"lib/stored.jar", "lib/deflated.jar"}) {
+            final URL url = NestedJarHandler.toUrl(NestedJarHandler.toUri(fatJar, entry));
+
+            // Use a class loader without parent, so the class can only come from the nested JAR file
+            try (URLClassLoader loader = new URLClassLoader(new URL[]{url}, null)) {
+                final Class<?> aClass = loader.loadClass(Payload.class.getName());
+
+                Assert.assertNotSame(Payload.class, aClass);
+                Assert.assertSame(loader, aClass.getClassLoader());
+                Assert.assertNull(loader.getResource("does/not/Exist.class"));
+            }
+        }
+    }
+
+    @Test
+    public void testRelease() throws Exception {
+        final URI nested = NestedJarHandler.toUri(createFatJar(), "lib/deflated.jar");
+        final ClassLoader first = new URLClassLoader(new URL[0], null);
+        final ClassLoader second = new URLClassLoader(new URL[0], null);
+
+        // Both realms share the same URL, so it has to stay usable until the last one is gone
+        final URL url = NestedJarHandler.toUrl(nested, first);
+        Assert.assertEquals(url, NestedJarHandler.toUrl(nested, second));
+
+        NestedJarHandler.release(url, first);
+        new URL(url, PAYLOAD).openStream().close();
+
+        NestedJarHandler.release(url, second);
+        try {
+            new URL(url, PAYLOAD).openStream().close();
+            Assert.fail("The nested JAR file should have been released along with its last realm");
+
+        } catch (FileNotFoundException e) {
+            // Expected
+        }
+
+        // It can still be added to new realms later on
+        new URL(NestedJarHandler.toUrl(nested, first), PAYLOAD).openStream().close();
+    }
+
+    private File createFatJar() throws IOException {
+        final byte[] payload;
+        try (InputStream input = getClass().getResourceAsStream("/" + PAYLOAD)) {
+            payload = ByteStreams.toByteArray(input);
+        }
+
+        final ByteArrayOutputStream innerJar = new ByteArrayOutputStream();
+        try (JarOutputStream output = new JarOutputStream(innerJar)) {
+            output.putNextEntry(new ZipEntry(PAYLOAD));
+            output.write(payload);
+        }
+
+        final File file = folder.newFile("fat.jar");
+        try (JarOutputStream output = new JarOutputStream(new FileOutputStream(file))) {
+            final byte[] bytes = innerJar.toByteArray();
+            final CRC32 crc = new CRC32();
+            crc.update(bytes);
+
+            // Fat JAR files usually store their libraries without compression, but we want to support both
+            final ZipEntry stored = new ZipEntry("lib/stored.jar");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(bytes.length);
+            stored.setCrc(crc.getValue());
+            output.putNextEntry(stored);
+            output.write(bytes);
+
+            output.putNextEntry(new ZipEntry("lib/deflated.jar"));
+            output.write(bytes);
+        }
+
+        return file;
+    }
+
+
+    public static class Payload {
+    }
+
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.examples.Example3Module;
+import net.mountainblade.modular.examples.ExampleModule;
+import net.mountainblade.modular.filters.InstanceOf;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+@RunWith(JUnit4.class)
+public class ParallelClassLoadingTest {
+    private static final int THREADS = 4;
+    private static final int BROKEN_CLASSES = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSameCandidates() throws Exception {
+        final URI root = new File(ExampleModule.class.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .toURI();
+        final Collection<String> names = new ArrayList<>();
+        listClasses(new File(root), "", names);
+        Assert.assertTrue(names.size() > 16);
+
+        final Map<URI, Collection<String>> classNames = Collections.singletonMap(root, names);
+
+        final BaseModuleManager parent = new DefaultModuleManager();
+        final List<Class<? extends Module>> expected = loadCandidates(parent, classNames);
+        Assert.assertFalse(expected.isEmpty());
+
+        final boolean previous = BaseModuleManager.parallelClassLoadingEnabled();
+        BaseModuleManager.enableParallelClassLoading(true);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+        try {
+            // Multiple managers should be able to load their classes at the same time
+            final Collection<Future<List<Class<? extends Module>>>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(new Callable<List<Class<? extends Module>>>() {
+                    @Override
+                    public List<Class<? extends Module>> call() throws Exception {
+                        return loadCandidates(new HierarchicModuleManager(parent), classNames);
+                    }
+                }));
+            }
+
+            for (Future<List<Class<? extends Module>>> future : futures) {
+                Assert.assertEquals(expected, future.get());
+            }
+
+        } finally {
+            executor.shutdown();
+            BaseModuleManager.enableParallelClassLoading(previous);
+        }
+    }
+
+    @Test
+    public void testBrokenClassFiles() throws Exception {
+        final File root = folder.newFolder("classes");
+        final String classFile = Example3Module.class.getName().replace('.', '/') + ".class";
+        final File file = new File(root, classFile);
+        Assert.assertTrue(file.getParentFile().mkdirs());
+
+        try (InputStream input = getClass().getResourceAsStream("/" + classFile)) {
+            Files.copy(input, file.toPath());
+        }
+
+        // Enough class files that cannot be defined to make the loader split them up into several tasks
+        for (int i = 0; i < BROKEN_CLASSES; i++) {
+            Files.write(new File(file.getParentFile(), "Broken" + i + ".class").toPath(), new byte[]{1, 2, 3, 4});
+        }
+
+        final boolean previous = BaseModuleManager.parallelClassLoadingEnabled();
+
+        try {
+            for (boolean parallel : new boolean[]{false, true}) {
+                BaseModuleManager.enableParallelClassLoading(parallel);
+
+                final BaseModuleManager manager = new DefaultModuleManager();
+                Assert.assertEquals(1, manager.loadModules(root, new InstanceOf(Module.class)).size());
+                manager.shutdown();
+            }
+
+        } finally {
+            BaseModuleManager.enableParallelClassLoading(previous);
+        }
+    }
+
+    private static void listClasses(File directory, String packagePrefix, Collection<String> names) {
+        final File[] files = directory.listFiles();
+        Assert.assertNotNull(files);
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                listClasses(file, packagePrefix + file.getName() + '.', names);
+
+            } else if (file.getName().endsWith(".class")) {
+                names.add(packagePrefix + file.getName().substring(0, file.getName().length() - 6));
+            }
+        }
+    }
+
+    private static List<Class<? extends Module>> loadCandidates(BaseModuleManager manager,
+                                                               Map<URI, Collection<String>> classNames) {
+        return new ArrayList<>(manager.getLoader().loadCandidates(manager, classNames));
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.TreeSet;
+
+@RunWith(JUnit4.class)
+public class PathBlacklistTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testNames() throws Exception {
+        final PathBlacklist blacklist = new PathBlacklist().add("demo").add("*.tmp").add("test-?");
+
+        Assert.assertTrue(blacklist.isBlacklisted("/home/user/Demo/classes"));
+        Assert.assertFalse(blacklist.isBlacklisted("/home/user/demolition/classes"));
+        Assert.assertTrue(blacklist.isBlacklisted("C:\\build\\cache.TMP"));
+        Assert.assertTrue(blacklist.isBlacklisted("file:/build/test-1/"));
+        Assert.assertFalse(blacklist.isBlacklisted("file:/build/test-12/"));
+    }
+
+    @Test
+    public void testPaths() throws Exception {
+        final PathBlacklist blacklist = new PathBlacklist().add("src/test").add("build/**/generated");
+
+        Assert.assertTrue(blacklist.isBlacklisted("/project/src/test/classes"));
+        Assert.assertFalse(blacklist.isBlacklisted("/project/src/main/test"));
+        Assert.assertTrue(blacklist.isBlacklisted("/project/build/generated"));
+        Assert.assertTrue(blacklist.isBlacklisted("/project/build/a/b/generated/classes"));
+        Assert.assertFalse(blacklist.isBlacklisted("/project/generated/build"));
+    }
+
+    @Test
+    public void testParent() throws Exception {
+        final PathBlacklist parent = new PathBlacklist().add(".git");
+        final PathBlacklist blacklist = new PathBlacklist(parent).add("demo");
+
+        Assert.assertTrue(blacklist.isBlacklisted("/project/.git"));
+        Assert.assertTrue(blacklist.isBlacklisted("/project/demo"));
+        Assert.assertFalse(parent.isBlacklisted("/project/demo"));
+
+        // Changes of the parent need to be picked up by the compiled form as well
+        parent.add("extra");
+        Assert.assertTrue(blacklist.isBlacklisted("/project/extra"));
+
+        Assert.assertTrue(blacklist.remove("demo"));
+        Assert.assertFalse(blacklist.isBlacklisted("/project/demo"));
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        final File root = folder.newFolder("classes");
+        create(root, "com/shop/Main.class");
+        create(root, "com/shop/demo/Demo.class");
+        create(root, "com/shop/demolition/Other.class");
+        create(root, "com/shop/internal/gen/Generated.class");
+        create(root, "org/example/internal/Test.class");
+
+        final PathBlacklist blacklist = new PathBlacklist(BaseModuleManager.getGlobalBlacklist())
+                .add("demo").add("shop/**/gen");
+
+        for (boolean parallel : new boolean[]{false, true}) {
+            final Collection<URI> uris = Collections.singleton(root.toURI());
+            final Collection<String> names = new ClassPathScanner(uris, parallel, false, blacklist.getMatcher())
+                    .scan(uris, "").get(root.toURI());
+
+            Assert.assertEquals(new TreeSet<>(Arrays.asList("com.shop.Main", "com.shop.demolition.Other",
+                    "org.example.internal.Test")), new TreeSet<>(names));
+        }
+    }
+
+    private static void create(File root, String path) throws IOException {
+        final File file = new File(root, path);
+        Assert.assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        Assert.assertTrue(file.createNewFile());
+    }
+
+}
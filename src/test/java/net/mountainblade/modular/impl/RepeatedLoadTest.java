@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Filter;
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.examples.Example3Module;
+import net.mountainblade.modular.filters.InstanceOf;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Collection;
+
+@RunWith(JUnit4.class)
+public class RepeatedLoadTest {
+    private static final String CLASS_FILE = Example3Module.class.getName().replace('.', '/') + ".class";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testUnchangedLocation() throws Exception {
+        final File root = folder.newFolder("classes");
+        final File file = new File(root, CLASS_FILE);
+        Assert.assertTrue(file.getParentFile().mkdirs());
+
+        try (InputStream input = getClass().getResourceAsStream("/" + CLASS_FILE)) {
+            Files.copy(input, file.toPath());
+        }
+
+        final BaseModuleManager manager = new DefaultModuleManager();
+        final Collection<Module> modules = manager.loadModules(root, new InstanceOf(Module.class));
+        Assert.assertEquals(1, modules.size());
+
+        // Remove the class without the package directory noticing, so only a new scan would see the difference
+        final File directory = file.getParentFile();
+        final long lastModified = directory.lastModified();
+        Assert.assertTrue(file.delete());
+        Assert.assertTrue(directory.setLastModified(lastModified));
+
+        final Collection<Module> repeated = manager.loadModules(root, new InstanceOf(Module.class));
+        Assert.assertEquals(1, repeated.size());
+        Assert.assertSame(modules.iterator().next(), repeated.iterator().next());
+
+        // A changed directory needs a new scan
+        Assert.assertTrue(directory.setLastModified(lastModified - 10000));
+        Assert.assertTrue(manager.loadModules(root, new InstanceOf(Module.class)).isEmpty());
+
+        manager.shutdown();
+    }
+
+    @Test
+    public void testClassPath() throws Exception {
+        final CountingFilter filter = new CountingFilter();
+        final String packageName = Module.class.getPackage().getName();
+
+        // The first load adds the found roots to the class path, which must not make the next one scan again
+        final BaseModuleManager manager = new DefaultModuleManager();
+        final Collection<Module> modules = manager.loadModules(packageName, filter);
+        Assert.assertFalse(modules.isEmpty());
+        Assert.assertTrue(filter.count > 0);
+
+        filter.count = 0;
+        Assert.assertEquals(modules, manager.loadModules(packageName, filter));
+        Assert.assertEquals(0, filter.count);
+
+        manager.shutdown();
+    }
+
+
+    private static final class CountingFilter implements Filter {
+        private int count;
+
+
+        @Override
+        public boolean retain(ModuleLoader.ClassEntry candidate) {
+            count++;
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+@RunWith(JUnit4.class)
+public class ScanIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testPersistence() throws Exception {
+        final File jar = folder.newFile("test.jar");
+        final File empty = folder.newFile("empty.jar");
+        final File indexFile = new File(folder.getRoot(), "index.bin");
+        final Collection<String> names = Arrays.asList("com.example.A", "com.example.B", "com.example.sub.C");
+
+        final ScanIndex index = new ScanIndex(indexFile);
+        Assert.assertNull(index.get(jar.toURI().toString(), jar, false));
+
+        put(index, jar, false, names);
+        put(index, empty, false, Collections.<String>emptyList());
+        index.flush();
+        Assert.assertTrue("Index has not been written", indexFile.isFile());
+
+        // Open it again, like we would on the next start
+        final ScanIndex reopened = new ScanIndex(indexFile);
+        Assert.assertEquals(names, new ArrayList<>(reopened.get(jar.toURI().toString(), jar, false)));
+        Assert.assertTrue(reopened.get(empty.toURI().toString(), empty, false).isEmpty());
+
+        // Nothing but the index itself should be left behind
+        Assert.assertArrayEquals(new String[]{"empty.jar", "index.bin", "test.jar"}, sortedNames(folder.getRoot()));
+    }
+
+    @Test
+    public void testRemovedEntries() throws Exception {
+        final File removed = folder.newFile("removed.jar");
+        final long lastModified = removed.lastModified();
+        final File indexFile = new File(folder.getRoot(), "index.bin");
+
+        final ScanIndex index = new ScanIndex(indexFile);
+        put(index, removed, false, Collections.singleton("com.example.A"));
+        index.flush();
+
+        // The next flush should drop the entry of the file that's gone
+        Assert.assertTrue(removed.delete());
+        final File other = folder.newFile("other.jar");
+        put(index, other, false, Collections.singleton("com.example.B"));
+        index.flush();
+
+        // So an identical file that shows up later does not get the old listing
+        Assert.assertTrue(removed.createNewFile());
+        Assert.assertTrue(removed.setLastModified(lastModified));
+        Assert.assertNull(new ScanIndex(indexFile).get(removed.toURI().toString(), removed, false));
+    }
+
+    @Test
+    public void testPreScreened() throws Exception {
+        final File jar = folder.newFile("test.jar");
+        final File indexFile = new File(folder.getRoot(), "index.bin");
+
+        final ScanIndex index = new ScanIndex(indexFile);
+        put(index, jar, true, Collections.singleton("com.example.A"));
+        index.flush();
+
+        // A pre-screened listing lacks classes, so it must not be handed out for a full one (and vice versa)
+        final ScanIndex reopened = new ScanIndex(indexFile);
+        Assert.assertNull(reopened.get(jar.toURI().toString(), jar, false));
+        Assert.assertEquals(Collections.singletonList("com.example.A"),
+                new ArrayList<>(reopened.get(jar.toURI().toString(), jar, true)));
+    }
+
+    @Test
+    public void testConcurrentFlushes() throws Exception {
+        final File jar = folder.newFile("test.jar");
+        final File indexFile = new File(folder.getRoot(), "index.bin");
+
+        // Two processes sharing the index don't know about each other, so they must not share a temporary file
+        final ScanIndex first = new ScanIndex(indexFile);
+        final ScanIndex second = new ScanIndex(indexFile);
+        final Collection<Thread> threads = new ArrayList<>();
+
+        for (final ScanIndex index : new ScanIndex[]{first, second}) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 50; i++) {
+                        put(index, jar, false, Collections.singleton("com.example.A" + i));
+                        index.flush();
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertNotNull(new ScanIndex(indexFile).get(jar.toURI().toString(), jar, false));
+        Assert.assertArrayEquals(new String[]{"index.bin", "test.jar"}, sortedNames(folder.getRoot()));
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        final File jar = folder.newFile("test.jar");
+        final File indexFile = new File(folder.getRoot(), "index.bin");
+
+        final ScanIndex index = new ScanIndex(indexFile);
+        put(index, jar, false, Collections.singleton("com.example.A"));
+        index.flush();
+
+        // Change the file size, which should invalidate the entry
+        try (FileOutputStream out = new FileOutputStream(jar)) {
+            out.write(new byte[]{1, 2, 3});
+        }
+
+        Assert.assertNull(new ScanIndex(indexFile).get(jar.toURI().toString(), jar, false));
+    }
+
+    @Test
+    public void testChangedWhileReading() throws Exception {
+        final File jar = folder.newFile("test.jar");
+        final File indexFile = new File(folder.getRoot(), "index.bin");
+        final long size = jar.length();
+        final long lastModified = jar.lastModified();
+
+        // The file changes after the scanner took its stamp, so the names we got might be from the old version
+        try (FileOutputStream out = new FileOutputStream(jar)) {
+            out.write(new byte[]{1, 2, 3});
+        }
+
+        final ScanIndex index = new ScanIndex(indexFile);
+        index.put(jar.toURI().toString(), size, lastModified, false, Collections.singleton("com.example.A"));
+        Assert.assertNull(index.get(jar.toURI().toString(), jar, false));
+    }
+
+    private static void put(ScanIndex index, File jar, boolean preScreened, Collection<String> names) {
+        index.put(jar.toURI().toString(), jar.length(), jar.lastModified(), preScreened, names);
+    }
+
+    private static String[] sortedNames(File directory) {
+        final String[] names = directory.list();
+        Arrays.sort(names);
+
+        return names;
+    }
+
+}
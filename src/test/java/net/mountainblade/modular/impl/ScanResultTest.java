@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.examples.Example3Module;
+import net.mountainblade.modular.filters.InstanceOf;
+import net.mountainblade.modular.filters.Not;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+
+@RunWith(JUnit4.class)
+public class ScanResultTest {
+    private static final String CLASS_FILE = Example3Module.class.getName().replace('.', '/') + ".class";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testSharedResult() throws Exception {
+        final File root = folder.newFolder("classes");
+        final File file = new File(root, CLASS_FILE);
+        Assert.assertTrue(file.getParentFile().mkdirs());
+
+        try (InputStream input = getClass().getResourceAsStream("/" + CLASS_FILE)) {
+            Files.copy(input, file.toPath());
+        }
+
+        final BaseModuleManager parent = new DefaultModuleManager();
+        final ScanResult result = parent.scan(Collections.singleton(root.toURI()), "");
+        Assert.assertEquals(Collections.singleton(root.toURI()), result.getRoots());
+        Assert.assertEquals(Collections.singletonList(Example3Module.class.getName()),
+                new ArrayList<>(result.getClassNames().get(root.toURI())));
+        Assert.assertTrue(result.isUpToDate());
+
+        try {
+            result.getClassNames().put(URI.create("file:/other/"), Collections.<String>emptyList());
+            Assert.fail("Scan results should not be modifiable");
+
+        } catch (UnsupportedOperationException ignore) {
+            // Expected
+        }
+
+        // The same result can be loaded by multiple children using different filters
+        final HierarchicModuleManager first = new HierarchicModuleManager(parent);
+        final HierarchicModuleManager second = new HierarchicModuleManager(parent);
+        Assert.assertEquals(1, first.loadModules(result, new InstanceOf(Module.class)).size());
+        Assert.assertTrue(second.loadModules(result, new Not(new InstanceOf(Module.class))).isEmpty());
+
+        // New files make the result outdated
+        final File directory = file.getParentFile();
+        final long lastModified = directory.lastModified();
+        Assert.assertTrue(new File(directory, "Other.class").createNewFile());
+        Assert.assertTrue(directory.setLastModified(lastModified - 10000));
+        Assert.assertFalse(result.isUpToDate());
+
+        first.shutdown();
+        second.shutdown();
+        parent.shutdown();
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import net.mountainblade.modular.Module;
+import net.mountainblade.modular.examples.Example3Module;
+import org.codehaus.plexus.classworlds.realm.ClassRealm;
+import org.codehaus.plexus.classworlds.strategy.SelfFirstStrategy;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.util.Collection;
+
+@RunWith(JUnit4.class)
+public class ShutdownTest {
+    private static final String CLASS_FILE = Example3Module.class.getName().replace('.', '/') + ".class";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testRealmUnloading() throws Exception {
+        final BaseModuleManager parent = new DefaultModuleManager();
+        final WeakReference<ClassRealm> realm = loadAndShutdown(parent);
+
+        for (int i = 0; i < 50 && realm.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        Assert.assertNull("The realm of the child has not been unloaded", realm.get());
+
+        // The parent is still intact
+        Assert.assertNotNull(parent.loadModule(Example3Module.class));
+        parent.shutdown();
+    }
+
+    private WeakReference<ClassRealm> loadAndShutdown(BaseModuleManager parent) throws Exception {
+        final File root = folder.newFolder("classes");
+        final File file = new File(root, CLASS_FILE);
+        Assert.assertTrue(file.getParentFile().mkdirs());
+
+        try (InputStream input = getClass().getResourceAsStream("/" + CLASS_FILE)) {
+            Files.copy(input, file.toPath());
+        }
+
+        // Make sure the child defines its own copy of the module instead of using the one of the application
+        final HierarchicModuleManager child = new HierarchicModuleManager(parent);
+        child.getLoader().setLoadingStrategy(SelfFirstStrategy.class);
+
+        final ClassRealm realm = child.getLoader().getRealm();
+        final Collection<Module> modules = child.loadModules(root);
+        Assert.assertEquals(1, modules.size());
+
+        final Class<?> moduleClass = modules.iterator().next().getClass();
+        Assert.assertSame(realm, moduleClass.getClassLoader());
+        Assert.assertNotSame(Example3Module.class, moduleClass);
+
+        child.shutdown();
+
+        // Once closed the realm cannot find anything new
+        Assert.assertNull(realm.findResource(CLASS_FILE));
+
+        return new WeakReference<>(realm);
+    }
+
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2014-2016 MountainBlade (http://mountainblade.net)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.mountainblade.modular.impl;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+@RunWith(JUnit4.class)
+public class ZipArchiveTest {
+    private static final long LARGE_SIZE = 3L * 1024 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+
+    @Test
+    public void testLargeFileFingerprint() throws Exception {
+        // A (sparse) archive that's larger than a single buffer could be, with an empty directory at its end
+        final File file = folder.newFile("large.jar");
+        final long directory = LARGE_SIZE - 22;
+
+        final ByteBuffer end = ByteBuffer.allocate(22).order(ByteOrder.LITTLE_ENDIAN);
+        end.putInt(0, 0x06054b50);
+        end.putInt(16, (int) directory);
+
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            output.setLength(LARGE_SIZE);
+            output.seek(directory);
+            output.write(end.array());
+        }
+
+        Assert.assertNotNull(ZipArchive.fingerprint(file));
+    }
+
+}